@@ -5,6 +5,8 @@ from bpy.types import Object
 
 class TesselatedFrame:
     time: float = 0
+    end_time: float = None
+    """The time of the next IFrame, after which this frame is hidden."""
     objects: dict[Any, Object]
 
     def __init__(self) -> None:
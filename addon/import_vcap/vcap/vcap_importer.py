@@ -20,7 +20,7 @@ from ..amulet_nbt import (TAG_Byte_Array, TAG_Compound, TAG_Int_Array,
 from . import import_mesh, materials, util
 from .anim import TesselatedFrame
 from .context import VCAPContext, VCAPSettings
-from .world import VcapFrame, load_frame
+from .world import IFrame, VcapFrame, load_frame
 
 
 def load(file: Union[str, IO[bytes]],
@@ -87,7 +87,7 @@ def load(file: Union[str, IO[bytes]],
 
         progress_function(1)
         # Clean up
-        for mesh in vcontext.models.values():
+        for mesh in set(vcontext.models.values()):
             context.blend_data.meshes.remove(mesh)
 
     if has_progress:
@@ -102,17 +102,29 @@ def loadMeshes(archive: ZipFile, context: VCAPContext):
             context.models[model_id] = import_mesh.load(context, model_id, loaded_file)
             loaded_file.close()
 
+    # Models that share another model's mesh.
+    if 'meta.json' in archive.namelist():
+        with archive.open('meta.json') as f:
+            meta = json.load(f)
+        for model_id, mesh_id in meta.get('meshes', {}).items():
+            context.models[model_id] = context.models[mesh_id]
+
 def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSettings, progress_function: Callable[[float], None] = None):
     nbt: amulet_nbt.NBTFile = amulet_nbt.load(world_dat.read(), compressed=False)
     print("Loading world...")
     nbt_frames: TAG_List = nbt.get('frames')
+    models: list[str] = None
+    models_tag: TAG_List = nbt.get('models')
+    if models_tag is not None:
+        models = [tag.value for tag in models_tag]
     frames: list[VcapFrame] = []
     for i in range(0, len(nbt_frames)):
-        frames.append(load_frame(nbt_frames[i], i))
+        frames.append(load_frame(nbt_frames[i], i, models))
 
     overrides: dict[Any, set[Vector]] = dict()
     blame: dict[Any, TesselatedFrame] = dict()
     loaded_frames: list[TesselatedFrame] = []
+    next_keyframe_time: float = None
 
     for i in reversed(range(0, len(frames))): # Go backward because overrides affect past frames.
 
@@ -137,10 +149,17 @@ def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSetting
                 obj.data.materials.append(mat)
 
         final_frame.time = frame.time
+        final_frame.end_time = next_keyframe_time
         override_id = f'frame{i}'
         overrides[override_id] = frame.get_declared_override()
         blame[override_id] = final_frame
 
+        # An IFrame replaces everything before it, so earlier frames don't
+        # need to be split by later overrides.
+        if isinstance(frame, IFrame):
+            overrides = dict()
+            next_keyframe_time = frame.time
+
         loaded_frames.append(final_frame)
 
     loaded_frames.reverse()
@@ -165,6 +184,8 @@ def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSetting
             add_keyframe(obj, True, seconds_to_frames(frame.time))
             if (id in blame):
                 add_keyframe(obj, False, seconds_to_frames(blame[id].time))
+            elif frame.end_time is not None:
+                add_keyframe(obj, False, seconds_to_frames(frame.end_time))
 
             for kf in obj.animation_data.action.fcurves[0].keyframe_points:
                 kf.interpolation = 'CONSTANT'
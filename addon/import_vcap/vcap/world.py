@@ -1,6 +1,7 @@
 from abc import abstractmethod, abstractproperty
 from typing import Any, Callable
 
+import numpy
 from numpy import ndarray
 import bmesh
 from bmesh.types import BMesh
@@ -8,15 +9,22 @@ import bpy
 from bpy.types import Mesh, TimelineMarkers
 from .context import VCAPContext, VCAPSettings
 from mathutils import Matrix, Vector
-from ..amulet_nbt import TAG_Compound, TAG_List, TAG_Int_Array, TAG_Byte_Array, TAG_String
+from ..amulet_nbt import TAG_Compound, TAG_List, TAG_Int_Array, TAG_Byte_Array
 from . import util
 
-def load_frame(nbt: TAG_Compound, index = 0):
+def load_frame(nbt: TAG_Compound, index = 0, models: list[str] = None):
+    """Load a frame from NBT.
+
+    Args:
+        nbt (TAG_Compound): Frame NBT data.
+        index (int, optional): Frame number to put in the mesh name. Defaults to 0.
+        models (list[str], optional): The file's model table, if it has one.
+    """
     t = nbt["type"].value
     if t == 0:
-        return IFrame(nbt, index)
+        return IFrame(nbt, index, models)
     elif t == 1:
-        return PFrame(nbt, index)
+        return PFrame(nbt, index, models)
     else: raise RuntimeError(f"Unknown frame type: {t}")
 
 
@@ -51,40 +59,72 @@ class VcapFrame:
 class PFrame(VcapFrame):
     __nbt__: TAG_Compound
     index: int = 0
+    models: list[str] = None
 
-    def __init__(self, nbt: TAG_Compound, index: int = 0) -> None:
+    def __init__(self, nbt: TAG_Compound, index: int = 0, models: list[str] = None) -> None:
         """Create a PFrame object.
 
         Args:
             nbt (TAG_Compound): Frame NBT data.
             index (int, optional): Frame number to put in the mesh name. Defaults to 0.
+            models (list[str], optional): The file's model table, if it has one.
         """
         self.__nbt__ = nbt
         self.index = index
+        self.models = models
         self.time = nbt['time'].value
         self.overrides = dict()
 
-    def get_meshes(self, vcontext: VCAPContext, settings: VCAPSettings, progress_function=None):
+    def _read_blocks(self):
+        """Iterate over the blocks updated in this frame.
+
+        Yields:
+            tuple[Vector, int, list[float] | None]: The frozen position, palette index, and color of each block.
+        """
+        if 'positions' in self.__nbt__:
+            positions = self.__nbt__['positions'].value
+            states = self.__nbt__['states'].value
+            colors = self.__nbt__['colors'].value if 'colors' in self.__nbt__ else None
+            for i in range(0, len(positions)):
+                position = _unpack_pos(positions.item(i))
+                position.freeze()
+                color = None
+                if colors is not None:
+                    color = [_read_unsigned(colors, i * 3) / 255,
+                             _read_unsigned(colors, i * 3 + 1) / 255,
+                             _read_unsigned(colors, i * 3 + 2) / 255, 1]
+                yield position, states.item(i), color
+            return
+
+        # Vcap versions prior to 0.4.0 store one compound per block.
         blocks: TAG_List = self.__nbt__['blocks']
-        palette: TAG_List = self.__nbt__['palette']
+        block: TAG_Compound
+        for block in blocks:
+            pos: TAG_List = block['pos']
+            position = Vector((pos[0].value, pos[1].value, pos[2].value))
+            position.freeze()
+            color = None
+            if 'color' in block:
+                color_tag: TAG_List = block['color']
+                color = [_make_unsigned(color_tag[0].value) / 255,
+                         _make_unsigned(color_tag[1].value) / 255,
+                         _make_unsigned(color_tag[2].value) / 255, 1]
+            yield position, block['state'].value, color
+
+    def get_meshes(self, vcontext: VCAPContext, settings: VCAPSettings, progress_function=None):
+        # Files with a model table store model indices directly.
+        if 'palette' in self.__nbt__:
+            palette = [tag.value for tag in self.__nbt__['palette']]
+        else:
+            palette = self.models
 
         meshes: dict[any, BMesh] = {}
         meshes['base'] = bmesh.new()
         for id in self.overrides:
             meshes[id] = bmesh.new()
 
-        block: TAG_Compound
-        for block in blocks:
-            state: int = block['state'].value
-            pos: TAG_List = block['pos']
-            x = pos[0].value
-            y = pos[1].value
-            z = pos[2].value
-            position = Vector((x, y, z))
-            position.freeze()
-
-            model_id: TAG_String = palette[state]
-            block_mesh = vcontext.models[model_id.value]
+        for position, state, block_color in self._read_blocks():
+            block_mesh = vcontext.models[palette[state]]
             if len(block_mesh.vertices) == 0:
                 continue
 
@@ -94,12 +134,8 @@ class PFrame(VcapFrame):
                     mesh_index = id
                     break
 
-            if settings.use_vertex_colors and 'color' in block:
-                color_tag: TAG_List = block['color']
-                r = _make_unsigned(color_tag[0].value) / 255
-                g = _make_unsigned(color_tag[1].value) / 255
-                b = _make_unsigned(color_tag[2].value) / 255
-                color = [r, g, b, 1]
+            if settings.use_vertex_colors and block_color is not None:
+                color = block_color
             else:
                 color = [1, 1, 1, 1]
 
@@ -118,15 +154,7 @@ class PFrame(VcapFrame):
 
     def get_declared_override(self) -> set[tuple[int, int, int]]:
         overrides = set()
-        blocks: TAG_List = self.__nbt__['blocks']
-        block: TAG_Compound
-        for block in blocks:
-            pos: TAG_List = block['pos']
-            x = pos[0].value
-            y = pos[1].value
-            z = pos[2].value
-            position = Vector((x, y, z))
-            position.freeze()
+        for position, state, color in self._read_blocks():
             overrides.add(position)
 
         return overrides
@@ -135,15 +163,18 @@ class PFrame(VcapFrame):
 class IFrame(VcapFrame):
     __nbt__: TAG_Compound
     index: int
+    models: list[str] = None
 
-    def __init__(self, nbt: TAG_Compound, index: int = 0) -> None:
+    def __init__(self, nbt: TAG_Compound, index: int = 0, models: list[str] = None) -> None:
         """Create an IFrame object.
 
         Args:
             nbt (TAG_Compound): Frame NBT data.
             index (int, optional): Frame number to put in the mesh name. Defaults to 0.
+            models (list[str], optional): The file's model table, if it has one.
         """
         self.__nbt__ = nbt
+        self.models = models
         self.overrides = dict()
         self.index = index
         self.time = nbt['time'].value
@@ -164,28 +195,42 @@ class IFrame(VcapFrame):
                 if(progress_function): progress_function(i / num_sections)
             
             section = sections[i]
-            palette: TAG_List = section['palette']
             offset = (section['x'].value, section['y'].value, section['z'].value)
-            blocks: TAG_Int_Array = section['blocks']
-            bblocks = blocks.value
+            # Identical sections are stored once and referenced afterwards.
+            if 'ref' in section:
+                section = sections[section['ref'].value]
+            # Files with a model table store palettes as model indices.
+            if self.models is not None:
+                palette = [self.models[m] for m in section['palette'].value]
+            else:
+                palette = [tag.value for tag in section['palette']]
+            # Sections with a single palette entry omit their block and color data.
+            bblocks = None
+            if 'blocks' in section:
+                blocks: TAG_Int_Array = section['blocks']
+                bblocks = blocks.value
+            elif 'packedBlocks' in section:
+                bblocks = _unpack_blocks(section['packedBlocks'].value, len(palette))
             use_colors = False
-            if settings.use_vertex_colors and ('colors' in section) and ('colorPalette' in section):
+            colors = None
+            if settings.use_vertex_colors and ('colorPalette' in section):
                 color_palette_tag: TAG_Byte_Array = section['colorPalette']
                 color_palette = color_palette_tag.value
-                colors_tag: TAG_Byte_Array = section['colors']
-                colors = colors_tag.value
+                if 'colors' in section:
+                    colors_tag: TAG_Byte_Array = section['colors']
+                    colors = colors_tag.value
                 use_colors = True
 
             for y in range(0, 16):
                 for z in range(0, 16):
                     for x in range(0, 16):
-                        index = bblocks.item((y * 16 + z) * 16 + x)
-                        model_id: str = palette[index].value
+                        index = bblocks.item((y * 16 + z) * 16 + x) if bblocks is not None else 0
+                        model_id: str = palette[index]
                         block_mesh = vcontext.models[model_id]
                         if len(block_mesh.vertices) == 0:
                             continue
                         if use_colors:
-                            i = colors.item((y * 16 + z) * 16 + x)
+                            i = colors.item((y * 16 + z) * 16 + x) if colors is not None else 0
                             r = _read_unsigned(color_palette, i, 8) / 255
                             g = _read_unsigned(color_palette, i + 1, 8) / 255
                             b = _read_unsigned(color_palette, i + 2, 8) / 255
@@ -228,4 +273,20 @@ def _make_unsigned(val: int, bit_depth: int = 8):
     if (val < 0):
         return val + 2**bit_depth
     else:
-        return val
\ No newline at end of file
+        return val
+
+def _unpack_pos(packed: int) -> Vector:
+    """Unpack a block position stored in Minecraft's packed long format."""
+    x = packed >> 38
+    y = ((packed & 0xFFF) ^ 0x800) - 0x800
+    z = (((packed >> 12) & 0x3FFFFFF) ^ 0x2000000) - 0x2000000
+    return Vector((x, y, z))
+
+def _unpack_blocks(packed: ndarray, palette_size: int, size: int = 4096) -> ndarray:
+    """Unpack a section's bit-packed block data into palette indices."""
+    bits = max(1, (palette_size - 1).bit_length())
+    per_long = 64 // bits
+    indices = numpy.arange(size, dtype=numpy.uint64)
+    longs = packed.astype(numpy.int64).view(numpy.uint64)[indices // numpy.uint64(per_long)]
+    shifts = (indices % numpy.uint64(per_long)) * numpy.uint64(bits)
+    return ((longs >> shifts) & numpy.uint64((1 << bits) - 1)).astype(numpy.int32)
@@ -0,0 +1,203 @@
+package com.igrium.worldexport.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4dc;
+import org.joml.Vector3d;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scaffoldeditor.worldexport.vcap.ObjVertexConsumer;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.Objs;
+import net.minecraft.client.render.VertexConsumer;
+
+/**
+ * Compares {@link ObjVertexConsumer} before and after it stopped allocating
+ * per vertex, by appending the cuboids of a player-sized model to a mesh.
+ * <p>
+ * The vertices are fed to the consumer in the same order and with the same
+ * calls as <code>ModelPart.Cuboid.renderCuboid</code>, but precomputed, so
+ * only the consumer is measured.
+ * <p>
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CuboidBenchmark {
+
+    private final Matrix4dc transform = new Matrix4d().translate(.5, 0, .5).rotateY(Math.PI / 4).scale(1 / 16d);
+
+    // One entry per vertex: position, UV and normal.
+    private float[] positions;
+    private float[] uvs;
+    private float[] normals;
+    private int vertexCount;
+
+    @Setup
+    public void setup() {
+        // Player model, with the outer layer: head, body, arms and legs.
+        List<float[]> boxes = new ArrayList<>();
+        addPart(boxes, -4, -8, -4, 8, 8, 8);
+        addPart(boxes, -4, 0, -2, 8, 12, 4);
+        addPart(boxes, -3, -2, -2, 4, 12, 4);
+        addPart(boxes, -1, -2, -2, 4, 12, 4);
+        addPart(boxes, -2, 0, -2, 4, 12, 4);
+        addPart(boxes, -2, 0, -2, 4, 12, 4);
+
+        vertexCount = boxes.size() * 24;
+        positions = new float[vertexCount * 3];
+        uvs = new float[vertexCount * 2];
+        normals = new float[vertexCount * 3];
+
+        int v = 0;
+        for (float[] box : boxes) {
+            float x0 = box[0] / 16, y0 = box[1] / 16, z0 = box[2] / 16;
+            float x1 = box[3] / 16, y1 = box[4] / 16, z1 = box[5] / 16;
+            float[][] faces = {
+                    { x1, y0, z1, x0, y0, z1, x0, y0, z0, x1, y0, z0, 0, -1, 0 }, // Down
+                    { x1, y1, z0, x0, y1, z0, x0, y1, z1, x1, y1, z1, 0, 1, 0 }, // Up
+                    { x0, y0, z0, x0, y0, z1, x0, y1, z1, x0, y1, z0, -1, 0, 0 }, // West
+                    { x1, y0, z0, x0, y0, z0, x0, y1, z0, x1, y1, z0, 0, 0, -1 }, // North
+                    { x1, y0, z1, x1, y0, z0, x1, y1, z0, x1, y1, z1, 1, 0, 0 }, // East
+                    { x0, y0, z1, x1, y0, z1, x1, y1, z1, x0, y1, z1, 0, 0, 1 } }; // South
+            for (float[] face : faces) {
+                for (int i = 0; i < 4; i++) {
+                    System.arraycopy(face, i * 3, positions, v * 3, 3);
+                    System.arraycopy(face, 12, normals, v * 3, 3);
+                    uvs[v * 2] = (i == 0 || i == 3) ? .5f : .25f;
+                    uvs[v * 2 + 1] = i < 2 ? .25f : .125f;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private static void addPart(List<float[]> boxes, float x, float y, float z, float sizeX, float sizeY, float sizeZ) {
+        boxes.add(new float[] { x, y, z, x + sizeX, y + sizeY, z + sizeZ });
+        // The outer layer is dilated by half a pixel.
+        boxes.add(new float[] { x - .5f, y - .5f, z - .5f, x + sizeX + .5f, y + sizeY + .5f, z + sizeZ + .5f });
+    }
+
+    private void render(VertexConsumer consumer) {
+        for (int i = 0; i < vertexCount; i++) {
+            consumer.vertex(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+            consumer.color(255, 255, 255, 255);
+            consumer.texture(uvs[i * 2], uvs[i * 2 + 1]);
+            consumer.overlay(0, 10);
+            consumer.light(240, 240);
+            consumer.normal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]);
+            consumer.next();
+        }
+    }
+
+    @Benchmark
+    public Obj current() {
+        Obj obj = Objs.create();
+        render(new ObjVertexConsumer(obj, transform));
+        return obj;
+    }
+
+    @Benchmark
+    public Obj legacy() {
+        Obj obj = Objs.create();
+        render(new LegacyConsumer(obj, transform));
+        return obj;
+    }
+
+    /**
+     * The original implementation, kept for comparison.
+     */
+    private static class LegacyConsumer implements VertexConsumer {
+        final Obj baseObj;
+        final Matrix4dc transform;
+        final Vector3d posCache = new Vector3d();
+
+        float[][] vertCache = new float[4][];
+        float[][] normalCache = new float[4][];
+        float[][] texCache = new float[4][];
+        int head = 0;
+
+        LegacyConsumer(Obj baseObj, Matrix4dc transform) {
+            this.baseObj = baseObj;
+            this.transform = transform;
+        }
+
+        @Override
+        public VertexConsumer vertex(double x, double y, double z) {
+            posCache.set(x, y, z).mulPosition(transform);
+            vertCache[head] = new float[] { (float) posCache.x(), (float) posCache.y(), (float) posCache.z() };
+            return this;
+        }
+
+        @Override
+        public VertexConsumer color(int red, int green, int blue, int alpha) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer texture(float u, float v) {
+            texCache[head] = new float[] { u, v };
+            return this;
+        }
+
+        @Override
+        public VertexConsumer overlay(int u, int v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer light(int u, int v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer normal(float x, float y, float z) {
+            Vector3f vec = new Vector3f(x, y, z).mulDirection(transform);
+            normalCache[head] = new float[] { vec.x(), vec.y(), vec.z() };
+            return this;
+        }
+
+        @Override
+        public void next() {
+            if (head >= 3) {
+                int objHead = baseObj.getNumVertices();
+                int[] indices = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    indices[i] = objHead + i;
+                    baseObj.addVertex(vertCache[i][0], vertCache[i][1], vertCache[i][2]);
+                    baseObj.addNormal(normalCache[i][0], normalCache[i][1], normalCache[i][2]);
+                    baseObj.addTexCoord(texCache[i][0], 1 - texCache[i][1]);
+                }
+                baseObj.addFace(indices, indices, indices);
+                head = 0;
+            } else {
+                head++;
+            }
+        }
+
+        @Override
+        public void fixedColor(int red, int green, int blue, int alpha) {
+        }
+
+        @Override
+        public void unfixColor() {
+        }
+    }
+}
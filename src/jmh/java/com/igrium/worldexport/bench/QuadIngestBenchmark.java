@@ -0,0 +1,174 @@
+package com.igrium.worldexport.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.scaffoldeditor.worldexport.vcap.FaceLayers;
+import org.scaffoldeditor.worldexport.vcap.QuadDecoder;
+
+/**
+ * Compares the quad ingestion in <code>MeshWriter.addFace</code> before and
+ * after it was rewritten around {@link QuadDecoder} and {@link FaceLayers}.
+ * Only decoding and face layer detection are measured; adding the vertices to
+ * the mesh is the same either way.
+ * <p>
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuadIngestBenchmark {
+
+    /**
+     * Rough quad counts of common models, with how many of those quads are
+     * overlays on top of another.
+     * <ul>
+     * <li><code>flower</code>: two crossed planes.</li>
+     * <li><code>leaves</code>: a cube.</li>
+     * <li><code>grass</code>: a cube with an overlay on each side.</li>
+     * <li><code>stairs</code>: two boxes, with their touching faces.</li>
+     * <li><code>chunk</code>: every quad of a busy section, ingested into one
+     * mesh. Stands in for the largest block models.</li>
+     * </ul>
+     */
+    @Param({ "flower", "leaves", "grass", "stairs", "chunk" })
+    public String model;
+
+    private int[][] quads;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(6);
+        List<int[]> list = new ArrayList<>();
+        switch (model) {
+            case "flower":
+                addQuads(list, random, 4, 0);
+                break;
+            case "leaves":
+                addQuads(list, random, 6, 0);
+                break;
+            case "grass":
+                addQuads(list, random, 6, 4);
+                break;
+            case "stairs":
+                addQuads(list, random, 14, 0);
+                break;
+            default:
+                addQuads(list, random, 2048, 512);
+                break;
+        }
+        quads = list.toArray(new int[0][]);
+    }
+
+    private static void addQuads(List<int[]> list, Random random, int count, int overlays) {
+        for (int i = 0; i < count; i++) {
+            int[] quad = new int[4 * QuadDecoder.STRIDE];
+            for (int v = 0; v < 4; v++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    quad[v * QuadDecoder.STRIDE + axis] = Float.floatToIntBits(random.nextInt(17) / 16f);
+                }
+                quad[v * QuadDecoder.STRIDE + 4] = Float.floatToIntBits(random.nextFloat());
+                quad[v * QuadDecoder.STRIDE + 5] = Float.floatToIntBits(random.nextFloat());
+            }
+            list.add(quad);
+        }
+        for (int i = 0; i < overlays; i++) {
+            list.add(list.get(i).clone());
+        }
+    }
+
+    @Benchmark
+    public void decoder(Blackhole blackhole) {
+        FaceLayers layers = new FaceLayers();
+        for (int[] vertData : quads) {
+            int len = QuadDecoder.getVertexCount(vertData);
+            for (int i = 0; i < len; i++) {
+                blackhole.consume(QuadDecoder.getX(vertData, i));
+                blackhole.consume(QuadDecoder.getY(vertData, i));
+                blackhole.consume(QuadDecoder.getZ(vertData, i));
+                blackhole.consume(QuadDecoder.getU(vertData, i));
+                blackhole.consume(1 - QuadDecoder.getV(vertData, i));
+            }
+            blackhole.consume(layers.add(vertData));
+        }
+    }
+
+    /**
+     * The original implementation, kept for comparison.
+     */
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        List<Set<float[]>> fLayers = new ArrayList<>();
+        for (int[] vertData : quads) {
+            int len = vertData.length / 8;
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            IntBuffer intBuffer = buffer.asIntBuffer();
+
+            float[] vertices = new float[len * 4];
+
+            for (int i = 0; i < len; i++) {
+                intBuffer.clear();
+                intBuffer.put(vertData, i * 8, 8);
+
+                float x = buffer.getFloat(0);
+                float y = buffer.getFloat(4);
+                float z = buffer.getFloat(8);
+
+                blackhole.consume(x);
+                blackhole.consume(y);
+                blackhole.consume(z);
+                blackhole.consume(buffer.getFloat(16));
+                blackhole.consume(1 - buffer.getFloat(20));
+
+                vertices[i * 3] = x;
+                vertices[i * 3 + 1] = y;
+                vertices[i * 3 + 1] = z;
+            }
+
+            if (fLayers.isEmpty()) {
+                fLayers.add(new HashSet<>());
+            }
+
+            int i = 0;
+            Set<float[]> layer = fLayers.get(i);
+            while (contains(layer, vertices)) {
+                i++;
+                if (fLayers.size() >= i) {
+                    fLayers.add(new HashSet<>());
+                }
+                layer = fLayers.get(i);
+            }
+            layer.add(vertices);
+            blackhole.consume(i);
+        }
+    }
+
+    private static boolean contains(Set<float[]> collection, float[] array) {
+        for (float[] val : collection) {
+            if (Arrays.equals(val, array)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package org.scaffoldeditor.worldexport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+/**
+ * <p>
+ * Dispatches client block updates to listeners that each watch a region of
+ * one world. Regions are boxes in section coordinates.
+ * </p>
+ * <p>
+ * Each update is first checked against the union of every region. Most
+ * updates fall outside it, such as redstone far from any capture, and they
+ * are rejected after a few integer comparisons, without allocating or calling
+ * a listener. With no listeners registered, every update is rejected this way.
+ * </p>
+ * <p>
+ * Listeners may be registered and removed from any thread. Updates are
+ * dispatched on the thread that changed the block.
+ * </p>
+ */
+public class BlockUpdateDispatcher {
+
+    private static class Region {
+        final int minX;
+        final int minY;
+        final int minZ;
+        final int maxX;
+        final int maxY;
+        final int maxZ;
+
+        /**
+         * Create a region. Min is inclusive and max is exclusive.
+         */
+        Region(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        final boolean contains(int x, int y, int z) {
+            return x >= minX && x < maxX && y >= minY && y < maxY && z >= minZ && z < maxZ;
+        }
+    }
+
+    private static final Region EVERYWHERE = new Region(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    private static final Region NOWHERE = new Region(0, 0, 0, 0, 0, 0);
+
+    private static class Registration extends Region {
+        final ClientBlockPlaceCallback listener;
+        @Nullable
+        final World world;
+
+        Registration(ClientBlockPlaceCallback listener, @Nullable World world, Region region) {
+            super(region.minX, region.minY, region.minZ, region.maxX, region.maxY, region.maxZ);
+            this.listener = listener;
+            this.world = world;
+        }
+    }
+
+    /**
+     * An immutable view of the registrations, swapped out whole whenever they
+     * change so that dispatching never locks.
+     */
+    private static class Snapshot {
+        final Registration[] registrations;
+        final Region bounds;
+
+        Snapshot(Registration[] registrations) {
+            this.registrations = registrations;
+            if (registrations.length == 0) {
+                bounds = NOWHERE;
+                return;
+            }
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (Registration reg : registrations) {
+                minX = Math.min(minX, reg.minX);
+                minY = Math.min(minY, reg.minY);
+                minZ = Math.min(minZ, reg.minZ);
+                maxX = Math.max(maxX, reg.maxX);
+                maxY = Math.max(maxY, reg.maxY);
+                maxZ = Math.max(maxZ, reg.maxZ);
+            }
+            bounds = new Region(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new Registration[0]);
+
+    /**
+     * Listen for every block update in every client world.
+     * @param listener Listener to add.
+     */
+    public void register(ClientBlockPlaceCallback listener) {
+        add(new Registration(listener, null, EVERYWHERE));
+    }
+
+    /**
+     * Listen for the block updates within a region of a world.
+     *
+     * @param listener    Listener to add.
+     * @param world       World to listen to. <code>null</code> for any world.
+     * @param minChunk    Region min (inclusive).
+     * @param maxChunk    Region max (exclusive).
+     * @param minSectionY Lowest section to listen to. Pass
+     *                    {@link Integer#MIN_VALUE} to listen all the way down.
+     */
+    public void register(ClientBlockPlaceCallback listener, @Nullable World world, ChunkPos minChunk, ChunkPos maxChunk,
+            int minSectionY) {
+        add(new Registration(listener, world,
+                new Region(minChunk.x, minSectionY, minChunk.z, maxChunk.x, Integer.MAX_VALUE, maxChunk.z)));
+    }
+
+    private synchronized void add(Registration registration) {
+        Registration[] current = snapshot.registrations;
+        Registration[] updated = new Registration[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = registration;
+        snapshot = new Snapshot(updated);
+    }
+
+    /**
+     * Remove every registration of a listener.
+     * @param listener Listener to remove.
+     * @return If the listener was registered.
+     */
+    public synchronized boolean unregister(ClientBlockPlaceCallback listener) {
+        List<Registration> remaining = new ArrayList<>();
+        for (Registration reg : snapshot.registrations) {
+            if (reg.listener != listener) remaining.add(reg);
+        }
+        if (remaining.size() == snapshot.registrations.length) return false;
+
+        snapshot = new Snapshot(remaining.toArray(new Registration[0]));
+        return true;
+    }
+
+    /**
+     * Dispatch a block update to the listeners whose region contains it.
+     * @param pos   Position of the block.
+     * @param state The block's new state.
+     * @param world World the block is in.
+     */
+    public void dispatch(BlockPos pos, BlockState state, World world) {
+        Snapshot snapshot = this.snapshot;
+        int x = pos.getX() >> 4;
+        int y = pos.getY() >> 4;
+        int z = pos.getZ() >> 4;
+        if (!snapshot.bounds.contains(x, y, z)) return;
+
+        for (Registration reg : snapshot.registrations) {
+            if ((reg.world == null || reg.world == world) && reg.contains(x, y, z)) {
+                reg.listener.place(pos, state, world);
+            }
+        }
+    }
+}
@@ -7,7 +7,9 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
 /**
- * Called on the client when a block has been updated.
+ * Called on the client when a block in a client world has been changed. Fires
+ * for every change in the world; to only hear about a region of it, register
+ * through {@link BlockUpdateDispatcher} instead.
  */
 public interface ClientBlockPlaceCallback {
     Event<ClientBlockPlaceCallback> EVENT = EventFactory.createArrayBacked(ClientBlockPlaceCallback.class,
@@ -4,4 +4,5 @@ public final class Constants {
     private Constants() {};
 
     public static final String REPLAY_FORMAT_VERSION = "0.2.0";
+    public static final String VCAP_FORMAT_VERSION = "0.8.0";
 }
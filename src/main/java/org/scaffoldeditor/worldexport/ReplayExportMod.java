@@ -1,7 +1,7 @@
 package org.scaffoldeditor.worldexport;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,6 +10,9 @@ import org.scaffoldeditor.worldexport.test.ExportCommand;
 import org.scaffoldeditor.worldexport.test.ReplayTestCommand;
 
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
 
 public class ReplayExportMod implements ClientModInitializer {
 
@@ -20,14 +23,47 @@ public class ReplayExportMod implements ClientModInitializer {
         return instance;
     }
 
-    private Set<ClientBlockPlaceCallback> blockUpdateListeners = new HashSet<>();
+    private final BlockUpdateDispatcher blockUpdateDispatcher = new BlockUpdateDispatcher();
+    // Listeners may be added and removed from other threads while events fire.
+    private Set<Runnable> frameListeners = ConcurrentHashMap.newKeySet();
+
+    public BlockUpdateDispatcher getBlockUpdateDispatcher() {
+        return blockUpdateDispatcher;
+    }
     
     public void onBlockUpdated(ClientBlockPlaceCallback listener) {
-        blockUpdateListeners.add(listener);
+        blockUpdateDispatcher.register(listener);
+    }
+
+    /**
+     * Listen for the block updates within a region of a world.
+     * @param listener    Listener to add.
+     * @param world       World to listen to.
+     * @param minChunk    Region min (inclusive).
+     * @param maxChunk    Region max (exclusive).
+     * @param minSectionY Lowest section to listen to.
+     * @see BlockUpdateDispatcher
+     */
+    public void onBlockUpdated(ClientBlockPlaceCallback listener, World world, ChunkPos minChunk, ChunkPos maxChunk,
+            int minSectionY) {
+        blockUpdateDispatcher.register(listener, world, minChunk, maxChunk, minSectionY);
     }
 
     public boolean removeOnBlockUpdated(ClientBlockPlaceCallback listener) {
-        return blockUpdateListeners.remove(listener);
+        return blockUpdateDispatcher.unregister(listener);
+    }
+
+    /**
+     * Add a listener that's called on the render thread at the end of every
+     * rendered frame.
+     * @param listener Listener to add.
+     */
+    public void onFrame(Runnable listener) {
+        frameListeners.add(listener);
+    }
+
+    public boolean removeOnFrame(Runnable listener) {
+        return frameListeners.remove(listener);
     }
 
     @Override
@@ -36,8 +72,8 @@ public class ReplayExportMod implements ClientModInitializer {
         ExportCommand.register();
         ReplayTestCommand.register();
 
-        ClientBlockPlaceCallback.EVENT.register((pos, state, world) -> {
-            blockUpdateListeners.forEach(listener -> listener.place(pos, state, world));
+        WorldRenderEvents.END.register(context -> {
+            frameListeners.forEach(Runnable::run);
         });
 
         ReplayModels.registerDefaults();
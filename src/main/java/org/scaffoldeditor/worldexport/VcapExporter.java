@@ -1,43 +1,55 @@
 package org.scaffoldeditor.worldexport;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.mojang.blaze3d.systems.RenderSystem;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 import org.scaffoldeditor.worldexport.mat.Material;
 import org.scaffoldeditor.worldexport.mat.TextureExtractor;
+import org.scaffoldeditor.worldexport.util.ParallelZipWriter;
+import org.scaffoldeditor.worldexport.vcap.BlockUpdateBuffer;
 import org.scaffoldeditor.worldexport.vcap.ExportContext;
 import org.scaffoldeditor.worldexport.vcap.ExportContext.ModelEntry;
 import org.scaffoldeditor.worldexport.vcap.Frame;
 import org.scaffoldeditor.worldexport.vcap.Frame.IFrame;
 import org.scaffoldeditor.worldexport.vcap.Frame.PFrame;
+import org.scaffoldeditor.worldexport.vcap.IncrementalIFrame;
 import org.scaffoldeditor.worldexport.vcap.MeshWriter;
 import org.scaffoldeditor.worldexport.vcap.MeshWriter.MeshInfo;
 import org.scaffoldeditor.worldexport.vcap.VcapMeta;
 import org.scaffoldeditor.worldexport.vcap.VcapSettings;
+import org.scaffoldeditor.worldexport.vcap.WorldSnapshot;
+import org.scaffoldeditor.worldexport.vcap.WorldState;
 
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjWriter;
-import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.texture.NativeImage;
 import net.minecraft.nbt.NbtCompound;
@@ -55,6 +67,12 @@ import net.minecraft.world.WorldAccess;
 public class VcapExporter {
     private static Logger LOGGER = LogManager.getLogger();
 
+    /**
+     * A reasonable per-frame budget for {@link #stepIFrame(long)}, in
+     * nanoseconds.
+     */
+    public static final long DEFAULT_STEP_BUDGET = 4_000_000;
+
     /**
      * The world this exporter is exporting.
      */
@@ -62,11 +80,52 @@ public class VcapExporter {
 
     public final List<Frame> frames = new ArrayList<>();
     public final ExportContext context;
+
+    /**
+     * The state of the world as of the latest captured frame.
+     */
+    private final WorldState worldState;
+
+    // Progress towards the next keyframe.
+    private int framesSinceKeyframe;
+    private double lastKeyframeTime;
+    private int volumeSinceKeyframe;
+
+    /**
+     * The IFrame being captured by {@link #captureIFrameAsync(double)}, if any.
+     */
+    @Nullable
+    private CompletableFuture<IFrame> pendingIFrame;
+
+    /**
+     * Builds {@link #pendingIFrame} on a worker thread.
+     */
+    @Nullable
+    private CompletableFuture<IFrame> pendingCapture;
+
+    /**
+     * The IFrame being captured by {@link #beginIFrame(double)}, if any.
+     */
+    @Nullable
+    private IncrementalIFrame incrementalIFrame;
+
+    /**
+     * Block updates that haven't been captured yet.
+     */
+    private final BlockUpdateBuffer blockUpdates = new BlockUpdateBuffer();
     
     public VcapSettings getSettings() {
         return context.getSettings();
     }
 
+    /**
+     * Get the state of the world as of the latest captured frame.
+     * @return The current world state.
+     */
+    public WorldState getWorldState() {
+        return worldState;
+    }
+
     /**
      * Create a new export instance.
      * 
@@ -76,7 +135,8 @@ public class VcapExporter {
      */
     public VcapExporter(WorldAccess world, ChunkPos minChunk, ChunkPos maxChunk) {
         this.world = world;
-        context = new ExportContext();        
+        context = new ExportContext();
+        worldState = new WorldState(context.modelTable);
         setBBox(minChunk, maxChunk);
 
     }
@@ -142,121 +202,249 @@ public class VcapExporter {
      *                     or extracting the texture.
      */
     public void save(OutputStream os) throws IOException {
-        ZipOutputStream out = new ZipOutputStream(os);
+        if (pendingIFrame != null || incrementalIFrame != null) {
+            throw new IllegalStateException("Can't save while an IFrame is still being captured.");
+        }
+        ParallelZipWriter out = new ParallelZipWriter(os, getSettings().getParallelism());
+        try {
+            // WORLD
+            LOGGER.info("Compiling frames...");
+            NbtList frames = new NbtList();
+            this.frames.forEach(frame -> frames.add(frame.getFrameData()));
+            NbtCompound worldData = new NbtCompound();
+            worldData.put("frames", frames);
+            // Written after the frames, as compiling them may add models.
+            worldData.put("models", context.modelTable.toNbt());
+
+            if (context.sectionStats.getTotal() > 0) {
+                LOGGER.info("Section deduplication: {}", context.sectionStats);
+            }
 
-        // WORLD
-        LOGGER.info("Compiling frames...");
-        NbtList frames = new NbtList();
-        this.frames.forEach(frame -> frames.add(frame.getFrameData()));
-        NbtCompound worldData = new NbtCompound();
-        worldData.put("frames", frames);
+            // Compressed in the background while the meshes are built.
+            try (DataOutputStream entry = new DataOutputStream(out.openEntry("world.dat"))) {
+                NbtIo.write(worldData, entry);
+            }
 
-        out.putNextEntry(new ZipEntry("world.dat"));
-        NbtIo.write(worldData, new DataOutputStream(out));
-        out.closeEntry();
+            // MODELS
+            LOGGER.info("Writing {} distinct models...", context.models.size());
+            Map<String, String> sharedMeshes = new HashMap<>();
+            int numLayers = writeBlockMeshes(out, sharedMeshes);
+            if (context.meshStats.getTotal() > 0) {
+                LOGGER.info("Mesh deduplication: {}", context.meshStats);
+            }
 
-        // MODELS
-        Random random = new Random();
-        int numLayers = 0;
+            for (String id : context.fluidMeshes.keySet()) {
+                LOGGER.debug("Writing fluid mesh: "+id);
+                writeMesh(context.fluidMeshes.get(id), id, out);
+            }
 
-        for (ModelEntry model : context.models.keySet()) {
-            String id = context.models.get(model);
-            LOGGER.debug("Writing mesh: "+id);
+            if (context.fluidStats.getTotal() > 0) {
+                LOGGER.info("Fluid mesh deduplication: {}", context.fluidStats);
+            }
+
+            // Fluid meshes assume empty mesh is written.
+            writeMesh(MeshWriter.empty().mesh, MeshWriter.EMPTY_MESH, out);
+
+            // MATERIALS
+            Material opaque = new Material();
+            opaque.setColor("world");
+            opaque.setRoughness(1);
+        
+            try (OutputStream entry = out.openEntry("mat/"+MeshWriter.WORLD_MAT+".json")) {
+                opaque.serialize(entry);
+            }
 
-            MeshInfo info = MeshWriter.writeBlockMesh(model, random);
-            writeMesh(info.mesh, id, out);
+            Material transparent = new Material();
+            transparent.setColor("world");
+            transparent.setRoughness(1);
+            transparent.setTransparent(true);
 
-            if (info.numLayers > numLayers) {
-                numLayers = info.numLayers;
+            try (OutputStream entry = out.openEntry("mat/"+MeshWriter.TRANSPARENT_MAT+".json")) {
+                transparent.serialize(entry);
             }
+
+            Material opaque_tinted = new Material();
+            opaque_tinted.setColor("world");
+            opaque_tinted.setRoughness(1);
+            opaque_tinted.addOverride("color2", Material.DEFAULT_OVERRIDES.VERTEX_COLOR);
+
+            try (OutputStream entry = out.openEntry("mat/"+MeshWriter.TINTED_MAT+".json")) {
+                opaque_tinted.serialize(entry);
+            }
+
+            Material transparent_tinted = new Material();
+            transparent_tinted.setColor("world");
+            transparent_tinted.setRoughness(1);
+            transparent_tinted.addOverride("color2", Material.DEFAULT_OVERRIDES.VERTEX_COLOR);
+            transparent_tinted.setTransparent(true);
+
+            try (OutputStream entry = out.openEntry("mat/"+MeshWriter.TRANSPARENT_TINTED_MAT+".json")) {
+                transparent_tinted.serialize(entry);
+            }
+
+            // TEXTURE ATLAS
+            CompletableFuture<NativeImage> textureExtraction = new CompletableFuture<>();
+            MinecraftClient.getInstance().execute(() -> {
+                LOGGER.info("Extracting world texture...");
+                textureExtraction.complete(TextureExtractor.getAtlas());
+            });
+
+            try (OutputStream entry = out.openEntry("tex/world.png")) {
+                TextureExtractor.writeTextureToFile(textureExtraction.get(), entry);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Texture extractor was interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error extracting world atlas texture.", e);
+            }
+        
+            // META
+            LOGGER.info("Writing Vcap metadata.");
+            VcapMeta meta = new VcapMeta(numLayers);
+            context.getIDMapping(meta.blockTypes);
+            meta.meshes.putAll(sharedMeshes);
+            Gson gson = new GsonBuilder()
+                .setPrettyPrinting()
+                .create();
+        
+            try (OutputStream entry = out.openEntry("meta.json")) {
+                PrintWriter writer = new PrintWriter(entry);
+                writer.print(gson.toJson(meta));
+                writer.flush();
+            }
+        
+
+            LOGGER.info("Finished writing Vcap.");
+            out.finish();
+        } finally {
+            // Does nothing if the archive was finished.
+            out.abort();
         }
+    }
 
-        for (String id : context.fluidMeshes.keySet()) {
-            LOGGER.debug("Writing fluid mesh: "+id);
-            writeMesh(context.fluidMeshes.get(id), id, out);
+    /**
+     * A block mesh that has been built and serialized, ready to be written.
+     */
+    private static class CompiledMesh {
+        final String id;
+        final byte[] obj;
+        final ByteBuffer digest;
+        final int numLayers;
+
+        CompiledMesh(String id, byte[] obj, ByteBuffer digest, int numLayers) {
+            this.id = id;
+            this.obj = obj;
+            this.digest = digest;
+            this.numLayers = numLayers;
         }
+    }
 
-        // Fluid meshes assume empty mesh is written.
-        writeMesh(MeshWriter.empty().mesh, MeshWriter.EMPTY_MESH, out);
+    private static CompiledMesh compileMesh(ModelEntry model, String id) {
+        LOGGER.debug("Writing mesh: "+id);
+        // Seeded by ID so random model variants are the same on every save.
+        MeshInfo info = MeshWriter.writeBlockMesh(model, new Random(id.hashCode()));
 
-        // MATERIALS
-        Material opaque = new Material();
-        opaque.setColor("world");
-        opaque.setRoughness(1);
-        
-        out.putNextEntry(new ZipEntry("mat/"+MeshWriter.WORLD_MAT+".json"));
-        opaque.serialize(out);
-        out.closeEntry();
-
-        Material transparent = new Material();
-        transparent.setColor("world");
-        transparent.setRoughness(1);
-        transparent.setTransparent(true);
-
-        out.putNextEntry(new ZipEntry("mat/"+MeshWriter.TRANSPARENT_MAT+".json"));
-        transparent.serialize(out);
-        out.closeEntry();
-
-        Material opaque_tinted = new Material();
-        opaque_tinted.setColor("world");
-        opaque_tinted.setRoughness(1);
-        opaque_tinted.addOverride("color2", Material.DEFAULT_OVERRIDES.VERTEX_COLOR);
-
-        out.putNextEntry(new ZipEntry("mat/"+MeshWriter.TINTED_MAT+".json"));
-        opaque_tinted.serialize(out);
-        out.closeEntry();
-
-        Material transparent_tinted = new Material();
-        transparent_tinted.setColor("world");
-        transparent_tinted.setRoughness(1);
-        transparent_tinted.addOverride("color2", Material.DEFAULT_OVERRIDES.VERTEX_COLOR);
-        transparent_tinted.setTransparent(true);
-
-        out.putNextEntry(new ZipEntry("mat/"+MeshWriter.TRANSPARENT_TINTED_MAT+".json"));
-        transparent_tinted.serialize(out);
-        out.closeEntry();
-
-        // TEXTURE ATLAS
-        CompletableFuture<NativeImage> textureExtraction = new CompletableFuture<>();
-        MinecraftClient.getInstance().execute(() -> {
-            LOGGER.info("Extracting world texture...");
-            textureExtraction.complete(TextureExtractor.getAtlas());
-        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjWriter.write(info.mesh, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] obj = bytes.toByteArray();
 
-        out.putNextEntry(new ZipEntry("tex/world.png"));
+        MessageDigest digest;
         try {
-            TextureExtractor.writeTextureToFile(textureExtraction.get(), out);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Texture extractor was interrupted.", e);
-        } catch (ExecutionException e) {
-            throw new IOException("Error extracting world atlas texture.", e);
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        out.closeEntry();
-        
-        // META
-        LOGGER.info("Writing Vcap metadata.");
-        VcapMeta meta = new VcapMeta(numLayers);
-        context.getIDMapping(meta.blockTypes);
-        Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .create();
-        
-        out.putNextEntry(new ZipEntry("meta.json"));
-        PrintWriter writer = new PrintWriter(out);
-        writer.print(gson.toJson(meta));
-        writer.flush();
-        out.closeEntry();
-        
+        return new CompiledMesh(id, obj, ByteBuffer.wrap(digest.digest(obj)), info.numLayers);
+    }
+
+    /**
+     * <p>
+     * Build and write the mesh of every model entry. Meshes are built and
+     * serialized on a pool of {@link VcapSettings#getParallelism()} threads,
+     * and written to the zip in order of ID on the calling thread. Only a
+     * limited number of meshes are built ahead of the writer at once.
+     * </p>
+     * <p>
+     * Many face variants of a block end up with the same geometry. Each
+     * distinct mesh is only written once, under the first ID that produced it.
+     * </p>
+     *
+     * @param out          Zip to write to.
+     * @param sharedMeshes Receives the ID of the written mesh for every model
+     *                     whose mesh was already written under another ID.
+     * @return The highest number of layers in any mesh.
+     */
+    private int writeBlockMeshes(ParallelZipWriter out, Map<String, String> sharedMeshes) throws IOException {
+        Map<ByteBuffer, String> written = new HashMap<>();
+        List<Map.Entry<ModelEntry, String>> entries = new ArrayList<>(context.models.asMap().entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+
+        int parallelism = getSettings().getParallelism();
+        int numLayers = 0;
 
-        LOGGER.info("Finished writing Vcap.");
-        out.finish();
+        if (parallelism <= 1) {
+            for (Map.Entry<ModelEntry, String> entry : entries) {
+                CompiledMesh mesh = compileMesh(entry.getKey(), entry.getValue());
+                writeBlockMesh(mesh, written, sharedMeshes, out);
+                numLayers = Math.max(numLayers, mesh.numLayers);
+            }
+            return numLayers;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        int window = parallelism * 4;
+        Deque<CompletableFuture<CompiledMesh>> inFlight = new ArrayDeque<>(window);
+        Iterator<Map.Entry<ModelEntry, String>> iterator = entries.iterator();
+
+        try {
+            while (iterator.hasNext() || !inFlight.isEmpty()) {
+                while (iterator.hasNext() && inFlight.size() < window) {
+                    Map.Entry<ModelEntry, String> entry = iterator.next();
+                    inFlight.add(CompletableFuture.supplyAsync(
+                            () -> compileMesh(entry.getKey(), entry.getValue()), pool));
+                }
+
+                CompiledMesh mesh;
+                try {
+                    mesh = inFlight.removeFirst().join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw e;
+                }
+                writeBlockMesh(mesh, written, sharedMeshes, out);
+                numLayers = Math.max(numLayers, mesh.numLayers);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return numLayers;
+    }
+
+    private void writeBlockMesh(CompiledMesh mesh, Map<ByteBuffer, String> written,
+            Map<String, String> sharedMeshes, ParallelZipWriter out) throws IOException {
+        String existing = written.putIfAbsent(mesh.digest, mesh.id);
+        if (existing != null) {
+            sharedMeshes.put(mesh.id, existing);
+            context.meshStats.hit(mesh.obj.length);
+        } else {
+            writeMesh(mesh.obj, mesh.id, out);
+            context.meshStats.miss();
+        }
+    }
+
+    private static void writeMesh(byte[] obj, String id, ParallelZipWriter out) throws IOException {
+        out.write("mesh/"+id+".obj", obj);
     }
 
-    private static void writeMesh(Obj mesh, String id, ZipOutputStream out) throws IOException {
-        ZipEntry modelEntry = new ZipEntry("mesh/"+id+".obj");
-        out.putNextEntry(modelEntry);
-        ObjWriter.write(mesh, out);
-        out.closeEntry();
+    private static void writeMesh(Obj mesh, String id, ParallelZipWriter out) throws IOException {
+        try (OutputStream entry = out.openEntry("mesh/"+id+".obj")) {
+            ObjWriter.write(mesh, entry);
+        }
     }
 
     /**
@@ -273,28 +461,181 @@ public class VcapExporter {
      * @return The frame.
      */
     public IFrame captureIFrame(double time) {
+        checkNoPendingIFrame();
         IFrame iFrame = IFrame.capture(world, getSettings().getMinChunk(), getSettings().getMaxChunk(), context, time);
         frames.add(iFrame);
+        worldState.apply(iFrame);
+        resetKeyframeProgress(time);
         return iFrame;
     }
 
     /**
-     * Capture a predicted frame and add it to the file.
+     * <p>
+     * Capture an intracoded frame without blocking the render thread. The
+     * world's sections are copied immediately, and the frame is built from that
+     * copy on a worker thread. Must be called on the render thread.
+     * </p>
+     * <p>
+     * PFrames can't be captured until the IFrame has been added to the file.
+     * Block updates buffered with {@link #queueBlockUpdate(BlockPos)} in the
+     * meantime stay buffered, and {@link #flushBlockUpdates(double)} captures
+     * them once it lands. Use {@link #awaitIFrame()} to add it right away.
+     * Only one IFrame may be pending at a time, and the exporter can't be
+     * saved until it finishes.
+     * </p>
+     * 
+     * @param time Time stamp of the frame, in seconds since the beginning
+     *             of the animation.
+     * @return A future that completes on the render thread once the frame has
+     *         been added to the file.
+     * @throws IllegalStateException If another IFrame is still being captured.
+     */
+    public CompletableFuture<IFrame> captureIFrameAsync(double time) {
+        checkNoPendingIFrame();
+        WorldSnapshot snapshot = WorldSnapshot.capture(world, getSettings().getMinChunk(), getSettings().getMaxChunk(), getSettings());
+
+        // Set before anything is chained, so the callback below can't run
+        // before it and leave the field set forever.
+        CompletableFuture<IFrame> future = new CompletableFuture<>();
+        pendingIFrame = future;
+        pendingCapture = CompletableFuture.supplyAsync(() -> IFrame.capture(snapshot, context, time));
+        pendingCapture.whenCompleteAsync((iFrame, e) -> finishIFrame(future, iFrame, e), MinecraftClient.getInstance());
+        return future;
+    }
+
+    /**
+     * Wait for the IFrame started by {@link #captureIFrameAsync(double)} to be
+     * built, and add it to the file now rather than on a later frame. Must be
+     * called on the render thread.
+     * 
+     * @return The frame, or <code>null</code> if none was pending.
+     * @throws CompletionException If the frame couldn't be captured.
+     */
+    @Nullable
+    public IFrame awaitIFrame() {
+        CompletableFuture<IFrame> future = pendingIFrame;
+        if (future == null) return null;
+
+        try {
+            finishIFrame(future, pendingCapture.join(), null);
+        } catch (CompletionException e) {
+            finishIFrame(future, null, e.getCause());
+        }
+        return future.join();
+    }
+
+    private void finishIFrame(CompletableFuture<IFrame> future, @Nullable IFrame iFrame, @Nullable Throwable e) {
+        // Already finished by awaitIFrame.
+        if (pendingIFrame != future) return;
+
+        // Clearing the pending frame and inserting it happen together, so
+        // there's never a moment where neither is present.
+        pendingIFrame = null;
+        pendingCapture = null;
+        if (e != null) {
+            future.completeExceptionally(e);
+            return;
+        }
+        try {
+            frames.add(iFrame);
+            worldState.apply(iFrame);
+            resetKeyframeProgress(iFrame.getTimestamp());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            return;
+        }
+        future.complete(iFrame);
+    }
+
+    /**
+     * <p>
+     * Begin capturing an intracoded frame a few sections at a time. Call
+     * {@link #stepIFrame(long)} once per frame until it returns the finished
+     * frame, and report every block update in the meantime with
+     * {@link #markBlockUpdated(BlockPos)}.
+     * </p>
+     * <p>
+     * The frame is stamped with the given time, but holds the world as of the
+     * step that finished it. PFrames can't be captured until then.
+     * </p>
+     * 
+     * @param time Time stamp of the frame, in seconds since the beginning
+     *             of the animation.
+     * @throws IllegalStateException If another IFrame is still being captured.
+     * @see IncrementalIFrame
+     */
+    public void beginIFrame(double time) {
+        checkNoPendingIFrame();
+        incrementalIFrame = new IncrementalIFrame(world, getSettings().getMinChunk(), getSettings().getMaxChunk(), context, time);
+    }
+
+    /**
+     * Continue the capture started by {@link #beginIFrame(double)}.
+     * 
+     * @param budgetNanos How long to spend capturing sections, in nanoseconds.
+     * @return The frame, if this step finished it and it was added to the file.
+     *         <code>null</code> otherwise.
+     */
+    @Nullable
+    public IFrame stepIFrame(long budgetNanos) {
+        if (incrementalIFrame == null || !incrementalIFrame.step(budgetNanos)) {
+            return null;
+        }
+
+        IFrame iFrame = incrementalIFrame.finish();
+        incrementalIFrame = null;
+        frames.add(iFrame);
+        worldState.apply(iFrame);
+        resetKeyframeProgress(iFrame.getTimestamp());
+        return iFrame;
+    }
+
+    /**
+     * Check whether an IFrame started by {@link #beginIFrame(double)} or
+     * {@link #captureIFrameAsync(double)} is still being captured.
+     * @return If a capture is in progress.
+     */
+    public boolean isCapturingIFrame() {
+        return incrementalIFrame != null || pendingIFrame != null;
+    }
+
+    /**
+     * Report a block update to an in-progress {@link #beginIFrame(double)}
+     * capture. Does nothing if there isn't one.
+     * @param pos Position of the block.
+     */
+    public void markBlockUpdated(BlockPos pos) {
+        if (incrementalIFrame != null) {
+            incrementalIFrame.markUpdated(pos);
+        }
+    }
+
+    private void checkNoPendingIFrame() {
+        if (pendingIFrame != null || incrementalIFrame != null) {
+            throw new IllegalStateException("An IFrame is already being captured.");
+        }
+    }
+
+    /**
+     * Capture a predicted frame and add it to the file. If the keyframe policy in
+     * the {@link VcapSettings} calls for it, an IFrame built from the current
+     * world state is added in its place.
      * 
      * @param time   Timestamp of the frame, in seconds since the beginning of the
      *               animation.
      * @param blocks A set of blocks to include data for in the frame.
      *               All ajacent blocks will be queried, and if they are found to
      *               have changed, they are also included in the frame.
-     * @return The captured frame.
+     * @return The frame that was added.
      */
-    public PFrame capturePFrame(double time, Set<BlockPos> blocks) {
+    public Frame capturePFrame(double time, Set<BlockPos> blocks) {
         return capturePFrame(time, blocks, world);
     }
 
     /**
      * Capture a predicted frame, sampling the blocks from the given world, and add
-     * it to the file.
+     * it to the file. If the keyframe policy in the {@link VcapSettings} calls
+     * for it, an IFrame built from the current world state is added in its place.
      * 
      * @param time   Timstamp of the frame, in seconds since the beginning of the
      *               animation.
@@ -303,30 +644,163 @@ public class VcapExporter {
      *               they are also included in the frame.
      * @param world  The world to query. Should contain a block structure equal to
      *               that in this exporter.
-     * @return The captured frame.
+     * @return The frame that was added.
      */
-    public PFrame capturePFrame(double time, Set<BlockPos> blocks, WorldAccess world) {
-        PFrame pFrame = PFrame.capture(world, blocks, time, frames.get(frames.size() - 1), context);
+    public Frame capturePFrame(double time, Set<BlockPos> blocks, WorldAccess world) {
+        if (incrementalIFrame != null || pendingIFrame != null) {
+            throw new IllegalStateException("Can't capture a PFrame until the current IFrame is finished.");
+        }
+        Frame previous = frames.isEmpty() ? null : frames.get(frames.size() - 1);
+        PFrame pFrame = dropUnchanged(PFrame.capture(world, blocks, time, previous, context, worldState::modelAt));
+        worldState.apply(pFrame);
+
+        framesSinceKeyframe++;
+        volumeSinceKeyframe += pFrame.getUpdates().size();
+
+        if (shouldInsertKeyframe(time)) {
+            LOGGER.debug("Inserting keyframe at {} seconds.", time);
+            IFrame iFrame = worldState.toIFrame(time, context);
+            frames.add(iFrame);
+            resetKeyframeProgress(time);
+            return iFrame;
+        }
+
         frames.add(pFrame);
         return pFrame;
     }
 
-    private Date captureStartTime;
-    private Set<BlockPos> updateCache = new HashSet<>();
-    private ClientBlockPlaceCallback listener = new ClientBlockPlaceCallback() {
-        private boolean isCaptureQueued = false;
-
-        @Override
-        public void place(BlockPos t, BlockState u, World world) {
-            updateCache.add(t);
-            if (!isCaptureQueued) {
-                RenderSystem.recordRenderCall(() -> {
-                    capturePFrame((new Date().getTime() - captureStartTime.getTime()) / 1000d, updateCache);
-                    updateCache.clear();
-                    isCaptureQueued = false;
-                });
+    /**
+     * Remove the blocks from a PFrame that already match the world state, such
+     * as a block that was placed and broken again within the frame.
+     */
+    private PFrame dropUnchanged(PFrame pFrame) {
+        Map<BlockPos, String> updates = new HashMap<>();
+        Map<BlockPos, Integer> colors = new HashMap<>();
+        for (Map.Entry<BlockPos, String> entry : pFrame.getUpdates().entrySet()) {
+            int color = pFrame.getColor(entry.getKey());
+            if (!worldState.matches(entry.getKey(), entry.getValue(), color)) {
+                updates.put(entry.getKey(), entry.getValue());
+                colors.put(entry.getKey(), color);
+            }
+        }
+        if (updates.size() == pFrame.getUpdates().size()) return pFrame;
+        return new PFrame(updates, colors, pFrame.world, pFrame.previous, pFrame.getTimestamp(), context.modelTable);
+    }
+
+    /**
+     * Buffer a block update to be captured by
+     * {@link #flushBlockUpdates(double)}. Repeated updates to the same block are
+     * merged. May be called from any thread.
+     * @param pos Position of the block.
+     */
+    public void queueBlockUpdate(BlockPos pos) {
+        blockUpdates.add(pos.asLong());
+    }
+
+    /**
+     * Get the number of buffered block updates.
+     * @return Update count.
+     */
+    public int getQueuedBlockUpdates() {
+        return blockUpdates.size();
+    }
+
+    /**
+     * Capture the buffered block updates. Must be called on the render thread,
+     * usually once per frame.
+     * 
+     * @param time Timestamp of the frame, in seconds since the beginning of the
+     *             animation.
+     * @return The frame that was added, or <code>null</code> if nothing was
+     *         buffered.
+     * @see #flushBlockUpdates(double, WorldAccess)
+     */
+    @Nullable
+    public Frame flushBlockUpdates(double time) {
+        return flushBlockUpdates(time, world);
+    }
+
+    /**
+     * <p>
+     * Capture the buffered block updates, sampling the blocks from the given
+     * world. Must be called on the render thread, usually once per frame.
+     * </p>
+     * <p>
+     * At most {@link VcapSettings#getMaxUpdatesPerFrame()} updates are
+     * captured; the rest are left for the next call. While an IFrame started
+     * with {@link #beginIFrame(double)} is being captured, every update is
+     * forwarded to it instead, and no frame is added. While one started with
+     * {@link #captureIFrameAsync(double)} is pending, the updates stay
+     * buffered until it lands.
+     * </p>
+     * 
+     * @param time  Timestamp of the frame, in seconds since the beginning of
+     *              the animation.
+     * @param world The world to query.
+     * @return The frame that was added, or <code>null</code> if nothing was
+     *         captured.
+     */
+    @Nullable
+    public Frame flushBlockUpdates(double time, WorldAccess world) {
+        return flushBlockUpdates(time, world, getSettings().getMaxUpdatesPerFrame());
+    }
+
+    /**
+     * Capture the buffered block updates, sampling the blocks from the given
+     * world. Must be called on the render thread.
+     * 
+     * @param time       Timestamp of the frame, in seconds since the beginning
+     *                   of the animation.
+     * @param world      The world to query.
+     * @param maxUpdates The maximum number of updates to capture.
+     *                   <code>0</code> to capture every buffered update.
+     * @return The frame that was added, or <code>null</code> if nothing was
+     *         captured.
+     * @see #flushBlockUpdates(double, WorldAccess)
+     */
+    @Nullable
+    public Frame flushBlockUpdates(double time, WorldAccess world, int maxUpdates) {
+        if (incrementalIFrame != null) {
+            for (long pos : blockUpdates.drain(0)) {
+                incrementalIFrame.markUpdated(BlockPos.fromLong(pos));
             }
-            isCaptureQueued = true;
+            return null;
+        }
+        if (pendingIFrame != null) return null;
+
+        long[] drained = blockUpdates.drain(maxUpdates);
+        if (drained.length == 0) return null;
+
+        int remaining = blockUpdates.size();
+        if (remaining > 0) {
+            LOGGER.debug("Deferring {} block updates to the next frame.", remaining);
+        }
+
+        Set<BlockPos> blocks = new HashSet<>(drained.length);
+        for (long pos : drained) {
+            blocks.add(BlockPos.fromLong(pos));
+        }
+        return capturePFrame(time, blocks, world);
+    }
+
+    private boolean shouldInsertKeyframe(double time) {
+        VcapSettings settings = getSettings();
+        return (settings.getKeyframeInterval() > 0 && framesSinceKeyframe >= settings.getKeyframeInterval())
+                || (settings.getKeyframeSeconds() > 0 && time - lastKeyframeTime >= settings.getKeyframeSeconds())
+                || (settings.getKeyframeVolume() > 0 && volumeSinceKeyframe >= settings.getKeyframeVolume());
+    }
+
+    private void resetKeyframeProgress(double time) {
+        framesSinceKeyframe = 0;
+        lastKeyframeTime = time;
+        volumeSinceKeyframe = 0;
+    }
+
+    private Date captureStartTime;
+    private ClientBlockPlaceCallback listener = (pos, state, world) -> queueBlockUpdate(pos);
+    private Runnable frameListener = () -> {
+        if (!blockUpdates.isEmpty()) {
+            flushBlockUpdates((new Date().getTime() - captureStartTime.getTime()) / 1000d);
         }
     };
 
@@ -341,10 +815,14 @@ public class VcapExporter {
             captureStartTime = startTime;
         }
 
-        ReplayExportMod.getInstance().onBlockUpdated(listener);
+        // Updates outside the bounding box are never captured.
+        ReplayExportMod.getInstance().onBlockUpdated(listener, world instanceof World ? (World) world : null,
+                getMinChunk(), getMaxChunk(), getSettings().getLowerDepth());
+        ReplayExportMod.getInstance().onFrame(frameListener);
     }
 
     public void stopListen() {
         ReplayExportMod.getInstance().removeOnBlockUpdated(listener);
+        ReplayExportMod.getInstance().removeOnFrame(frameListener);
     }
 }
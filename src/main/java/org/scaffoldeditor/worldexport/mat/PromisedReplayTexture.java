@@ -66,6 +66,17 @@ public class PromisedReplayTexture implements ReplayTexture {
         TextureExtractor.writeTextureToFile(image, out);
     }
 
+    /**
+     * Get the extracted image, extracting it first if it hasn't been already.
+     * Unless the texture has been extracted or is backed by a
+     * <code>NativeImage</code>, this must be called on the render thread.
+     * @return The image.
+     */
+    public NativeImage getImage() {
+        extract();
+        return image;
+    }
+
     /**
      * Get the AbstractTexture that was or will be extracted from the GPU.
      * @return Texture.
@@ -1,15 +1,15 @@
 package org.scaffoldeditor.worldexport.mat;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.util.zip.Deflater;
 
 import com.mojang.blaze3d.platform.GlStateManager;
 import com.mojang.blaze3d.systems.RenderSystem;
 
 import org.apache.logging.log4j.LogManager;
 import org.lwjgl.opengl.GL11C;
+import org.scaffoldeditor.worldexport.util.PngEncoder;
 
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.texture.AbstractTexture;
@@ -92,17 +92,17 @@ public final class TextureExtractor {
     }
 
     /**
-     * Save a <code>NativeImage</code> into a PNG file.
-     * @param texture Image to save.
+     * Save a <code>NativeImage</code> into a PNG file. RGBA images are encoded
+     * straight from their pixel buffer, without a temporary file.
+     * @param texture Image to save. Must not be closed until this returns.
      * @param output Output stream to write to.
      * @throws IOException If an I/O exception occurs.
      */
     public static void writeTextureToFile(NativeImage texture, OutputStream output) throws IOException {
-        // For some reason, NativeImage can only write to a file; not an output stream.
-        File texTemp = File.createTempFile("texture-", ".png");
-        texTemp.deleteOnExit();
-        texture.writeTo(texTemp);
-
-        Files.copy(texTemp.toPath(), output);
+        if (texture.getFormat() != NativeImage.Format.RGBA) {
+            output.write(texture.getBytes());
+            return;
+        }
+        PngEncoder.write(texture.getWidth(), texture.getHeight(), texture::getPixelColor, output, Deflater.DEFAULT_COMPRESSION);
     }
 }
@@ -1,6 +1,7 @@
 package org.scaffoldeditor.worldexport.mixins;
 
 import org.scaffoldeditor.worldexport.ClientBlockPlaceCallback;
+import org.scaffoldeditor.worldexport.ReplayExportMod;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
@@ -18,7 +19,13 @@ public class WorldMixin {
 
     @Inject(method = "setBlockState(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;II)Z", at = @At("RETURN"))
     private void setBlockState(BlockPos pos, BlockState state, int flags, int maxUpdateDepth, CallbackInfoReturnable<Boolean> info) {
-        ClientBlockPlaceCallback.EVENT.invoker().place(pos, state, (World)(Object) this);
+        // Skip calls that didn't change anything, and the integrated server's
+        // copy of the world; its updates reach the client world separately.
+        World world = (World)(Object) this;
+        if (!info.getReturnValueZ() || !world.isClient) return;
+
+        ReplayExportMod.getInstance().getBlockUpdateDispatcher().dispatch(pos, state, world);
+        ClientBlockPlaceCallback.EVENT.invoker().place(pos, state, world);
     }
     
 }
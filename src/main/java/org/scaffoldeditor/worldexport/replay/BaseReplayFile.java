@@ -1,27 +1,36 @@
 package org.scaffoldeditor.worldexport.replay;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.scaffoldeditor.worldexport.mat.Material;
+import org.scaffoldeditor.worldexport.mat.PromisedReplayTexture;
 import org.scaffoldeditor.worldexport.mat.ReplayTexture;
+import org.scaffoldeditor.worldexport.mat.ReplayTexture.NativeImageReplayTexture;
+import org.scaffoldeditor.worldexport.mat.TextureExtractor;
 import org.scaffoldeditor.worldexport.mat.Field;
 import org.scaffoldeditor.worldexport.mat.Field.FieldType;
+import org.scaffoldeditor.worldexport.util.ParallelZipWriter;
+
+import net.minecraft.client.texture.NativeImage;
 
 public abstract class BaseReplayFile<T extends BaseReplayEntity> {
     public abstract Set<T> getEntities();
@@ -49,58 +58,122 @@ public abstract class BaseReplayFile<T extends BaseReplayEntity> {
      */
     public void save(OutputStream os) throws IOException {
         LOGGER.info("Initializing replay serialization...");
-        ZipOutputStream out = new ZipOutputStream(os);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ParallelZipWriter out = new ParallelZipWriter(os, threads);
+        try {
+            // META
+            ReplayMeta meta = getMeta();
+            Gson gson = new GsonBuilder()
+                .setPrettyPrinting()
+                .create();
+
+            try (OutputStream entry = out.openEntry("meta.json")) {
+                PrintWriter writer = new PrintWriter(entry);
+                writer.print(gson.toJson(meta));
+                writer.flush();
+            }
 
 
-        // META
-        ReplayMeta meta = getMeta();
-        Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .create();
+            LOGGER.info("Writing world...");
+            // The world is an archive of its own, and may be too large to buffer.
+            try (OutputStream entry = out.openStream("world.vcap")) {
+                saveWorld(entry);
+            }
 
-        out.putNextEntry(new ZipEntry("meta.json"));
-        PrintWriter writer = new PrintWriter(out);
-        writer.print(gson.toJson(meta));
-        writer.flush();
-        out.closeEntry();
+            LOGGER.info("Serializing entities...");
+            for (T ent : getEntities()) {
+                preserializeEntity(ent);
+                try (OutputStream entry = out.openEntry("entities/"+ent.getName()+".xml")) {
+                    OutputStreamWriter writer = new OutputStreamWriter(entry);
+                    ReplayIO.serializeEntity(ent, writer);
+                    writer.flush();
+                }
+            }
 
+            LOGGER.info("Saving Materials...");
+            for (String id : getMaterials().keySet()) {
+                Material mat = getMaterials().get(id);
+                checkForTexture(mat.getColor(), id);
+                checkForTexture(mat.getMetallic(), id);
+                checkForTexture(mat.getNormal(), id);
+                checkForTexture(mat.getRoughness(), id);
+
+                try (OutputStream entry = out.openEntry("mat/"+id+".json")) {
+                    mat.serialize(entry);
+                }
+            }
 
-        LOGGER.info("Writing world...");
-        out.putNextEntry(new ZipEntry("world.vcap"));
-        saveWorld(out);
-        out.closeEntry();        
+            LOGGER.info("Encoding textures...");
+            // Textures are extracted here, on the calling thread, because GPU
+            // textures can only be read on the render thread. Only the PNG
+            // encoding is done in parallel; the results are written in order.
+            ForkJoinPool encoders = new ForkJoinPool(threads);
+            try {
+                Map<String, CompletableFuture<byte[]>> textures = new LinkedHashMap<>();
+                for (Map.Entry<String, ? extends ReplayTexture> tex : getTextures().entrySet()) {
+                    NativeImage image = getImage(tex.getValue());
+                    textures.put(tex.getKey(), image != null
+                            ? CompletableFuture.supplyAsync(() -> encodeTexture(image), encoders)
+                            : CompletableFuture.completedFuture(encodeTexture(tex.getValue())));
+                }
+
+                for (Map.Entry<String, CompletableFuture<byte[]>> tex : textures.entrySet()) {
+                    byte[] png;
+                    try {
+                        png = tex.getValue().join();
+                    } catch (CompletionException e) {
+                        if (e.getCause() instanceof UncheckedIOException) {
+                            throw ((UncheckedIOException) e.getCause()).getCause();
+                        }
+                        throw e;
+                    }
+                    out.write("tex/"+tex.getKey()+".png", png);
+                }
+            } finally {
+                encoders.shutdownNow();
+            }
 
-        LOGGER.info("Serializing entities...");
-        for (T ent : getEntities()) {
-            preserializeEntity(ent);
-            out.putNextEntry(new ZipEntry("entities/"+ent.getName()+".xml"));
-            ReplayIO.serializeEntity(ent, new OutputStreamWriter(out));
-            out.closeEntry();
+            LOGGER.info("Finished writing replay file.");
+            out.finish();
+        } finally {
+            // Does nothing if the archive was finished.
+            out.abort();
         }
+    }
 
-        LOGGER.info("Saving Materials...");
-        for (String id : getMaterials().keySet()) {
-            Material mat = getMaterials().get(id);
-            checkForTexture(mat.getColor(), id);
-            checkForTexture(mat.getMetallic(), id);
-            checkForTexture(mat.getNormal(), id);
-            checkForTexture(mat.getRoughness(), id);
-
-            out.putNextEntry(new ZipEntry("mat/"+id+".json"));
-            mat.serialize(out);
-            out.closeEntry();
+    /**
+     * Get the image behind a texture, extracting it from the GPU if needed.
+     * @return The image, or <code>null</code> if the texture isn't backed by
+     *         one and must be saved with {@link ReplayTexture#save}.
+     */
+    @Nullable
+    private static NativeImage getImage(ReplayTexture texture) {
+        if (texture instanceof NativeImageReplayTexture) {
+            return ((NativeImageReplayTexture) texture).getImage();
+        } else if (texture instanceof PromisedReplayTexture) {
+            return ((PromisedReplayTexture) texture).getImage();
         }
+        return null;
+    }
 
-        for (String id : getTextures().keySet()) {
-            ReplayTexture tex = getTextures().get(id);
-
-            out.putNextEntry(new ZipEntry("tex/"+id+".png"));
-            tex.save(out);
-            out.closeEntry();
+    private static byte[] encodeTexture(NativeImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            TextureExtractor.writeTextureToFile(image, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return out.toByteArray();
+    }
 
-        LOGGER.info("Finished writing replay file.");
-        out.finish();
+    private static byte[] encodeTexture(ReplayTexture texture) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            texture.save(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
     }
 
     private boolean checkForTexture(Field field, String matName) {
@@ -21,9 +21,11 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
 import org.scaffoldeditor.worldexport.ClientBlockPlaceCallback;
 import org.scaffoldeditor.worldexport.ReplayExportMod;
+import org.scaffoldeditor.worldexport.VcapExporter;
 import org.scaffoldeditor.worldexport.replay.ReplayEntity;
 import org.scaffoldeditor.worldexport.replay.ReplayFile;
 import org.scaffoldeditor.worldexport.replay.model_adapters.ReplayModelAdapter.ModelNotFoundException;
+import org.scaffoldeditor.worldexport.vcap.VcapSettings;
 
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
@@ -40,7 +42,6 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
     protected ReplayExportSettings settings;
     protected ReplayFile exporter;
 
-    protected Map<BlockPos, BlockState> blockUpdateCache = new HashMap<>();
     protected Map<Entity, ReplayEntity<?>> entityCache = new HashMap<>();
     protected Set<Entity> skippedEnts = new HashSet<>();
 
@@ -56,7 +57,7 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
 
         @Override
         public void place(BlockPos pos, BlockState state, World world) {
-            blockUpdateCache.put(pos, state);
+            exporter.getWorldExporter().queueBlockUpdate(pos);
         }
         
     };
@@ -81,10 +82,15 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
         }
         
         exporter.setFps(renderInfo.getRenderSettings().getFramesPerSecond());
-        exporter.getWorldExporter().getSettings().exportFluids(false).setLowerDepth(settings.getLowerDepth());
+        exporter.getWorldExporter().getSettings().setLowerDepth(settings.getLowerDepth())
+                .setKeyframeSeconds(30)
+                .setKeyframeVolume(65536);
         LogManager.getLogger().info("Capturing initial world");
-        exporter.getWorldExporter().captureIFrame(0);
-        ReplayExportMod.getInstance().onBlockUpdated(blockUpdateListener);
+        // Built in the background from a copy of the world as of t=0.
+        exporter.getWorldExporter().captureIFrameAsync(0);
+        VcapSettings worldSettings = exporter.getWorldExporter().getSettings();
+        ReplayExportMod.getInstance().onBlockUpdated(blockUpdateListener, client.world,
+                worldSettings.getMinChunk(), worldSettings.getMaxChunk(), worldSettings.getLowerDepth());
     }
 
     @Override
@@ -100,10 +106,13 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
         }
 
         double time = framesDone / (double) renderInfo.getRenderSettings().getFramesPerSecond();
-        if (blockUpdateCache.size() > 0) {
-            exporter.getWorldExporter().capturePFrame(time, blockUpdateCache.keySet(), client.world);
-            blockUpdateCache.clear();
+        VcapExporter worldExporter = exporter.getWorldExporter();
+        // Block changes must be captured in the frame they happened in, so
+        // don't let them wait for the initial world.
+        if (worldExporter.getQueuedBlockUpdates() > 0) {
+            worldExporter.awaitIFrame();
         }
+        worldExporter.flushBlockUpdates(time, client.world);
 
         client.world.getEntities().forEach(this::captureEntity);
 
@@ -144,6 +153,14 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
     public void close() throws IOException {
         cleanUp();
 
+        // Capture any updates that were deferred past the last frame.
+        VcapExporter worldExporter = exporter.getWorldExporter();
+        worldExporter.awaitIFrame();
+        double time = framesDone / (double) renderInfo.getRenderSettings().getFramesPerSecond();
+        while (worldExporter.getQueuedBlockUpdates() > 0) {
+            worldExporter.flushBlockUpdates(time, client.world);
+        }
+
         File output = renderInfo.getRenderSettings().getOutputFile();
         Path folder = output.getParentFile().toPath();
         File target = folder.resolve(FilenameUtils.getBaseName(output.getName())+".replay").normalize().toFile();
@@ -6,11 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.function.BiConsumer;
 
-import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
@@ -19,6 +15,7 @@ import com.mojang.brigadier.tree.LiteralCommandNode;
 
 import org.apache.logging.log4j.LogManager;
 import org.scaffoldeditor.worldexport.ClientBlockPlaceCallback;
+import org.scaffoldeditor.worldexport.ReplayExportMod;
 import org.scaffoldeditor.worldexport.VcapExporter;
 import org.scaffoldeditor.worldexport.mat.TextureExtractor;
 
@@ -26,6 +23,7 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.client.command.v1.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v1.FabricClientCommandSource;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.texture.NativeImage;
@@ -48,9 +46,7 @@ public final class ExportCommand {
         public final World world;
         public Date startTime;
         public boolean autoCapture = false;
-        private boolean captureQueued = false;
-
-        private Set<BlockPos> updates = new HashSet<>();
+        public final ClientBlockPlaceCallback listener = (pos, state, world) -> onBlockUpdate(pos, state);
 
         public ExportContext(VcapExporter exporter, World world) {
             this.exporter = exporter;
@@ -58,32 +54,37 @@ public final class ExportCommand {
         }
 
         public void onBlockUpdate(BlockPos pos, BlockState state) {
-            updates.add(pos);
-            if (autoCapture && !captureQueued) {
-                RenderSystem.recordRenderCall(() -> {
-                    captureFrame(); // Seperate render call merges simultaneous updates into one frame.
-                    captureQueued = false;
-                });
-                captureQueued = true;
-            }
+            exporter.queueBlockUpdate(pos);
         }
 
         public void captureFrame() {
-            exporter.capturePFrame(
-                    (new Date().getTime() - startTime.getTime()) / 1000d, updates);
-            updates.clear();
+            captureFrame(exporter.getSettings().getMaxUpdatesPerFrame());
+        }
+
+        /**
+         * Capture the buffered block updates into a frame.
+         * @param maxUpdates The maximum number of updates to capture.
+         *                   <code>0</code> to capture all of them.
+         */
+        public void captureFrame(int maxUpdates) {
+            if (exporter.isCapturingIFrame()) return;
+            exporter.flushBlockUpdates((new Date().getTime() - startTime.getTime()) / 1000d, exporter.world,
+                    maxUpdates);
         }
 
     }
 
     protected static ExportContext currentExport;
-    private static Set<BiConsumer<BlockPos, BlockState>> worldListeners = new HashSet<>();
 
     public static void register() {
         LiteralCommandNode<FabricClientCommandSource> root = ClientCommandManager.literal("vcap").build();
 
-        ClientBlockPlaceCallback.EVENT.register((pos, state, world) -> {
-            worldListeners.forEach(listener -> listener.accept(pos, state));
+        WorldRenderEvents.END.register(context -> {
+            if (currentExport != null && currentExport.autoCapture) {
+                // Updates made within a frame are merged into one PFrame. They
+                // stay buffered until the initial IFrame lands.
+                currentExport.captureFrame();
+            }
         });
 
         LiteralCommandNode<FabricClientCommandSource> start = ClientCommandManager.literal("start")
@@ -102,9 +103,16 @@ public final class ExportCommand {
                                     new ChunkPos(playerPos.x + radius, playerPos.z + radius));
                             currentExport = new ExportContext(exporter, world);
 
-                            exporter.captureIFrame(0);
+                            exporter.captureIFrameAsync(0).whenComplete((iFrame, e) -> {
+                                if (e != null) {
+                                    LogManager.getLogger().error("Error capturing initial world.", e);
+                                    context.getSource().sendError(new LiteralText("Error capturing initial world."));
+                                }
+                            });
                             currentExport.startTime = new Date();
-                            worldListeners.add(currentExport::onBlockUpdate);
+                            ReplayExportMod.getInstance().onBlockUpdated(currentExport.listener, world,
+                                    exporter.getMinChunk(), exporter.getMaxChunk(),
+                                    exporter.getSettings().getLowerDepth());
 
                             context.getSource().sendFeedback(new LiteralText("Started Vcap capture..."));
                             return 0;
@@ -118,7 +126,9 @@ public final class ExportCommand {
                         throw new CommandException(
                                 new LiteralText("No Vcap recording active! Start one with 'vcap start'"));
                     }
-                    currentExport.captureFrame();
+                    // A manual capture should include everything changed since the last one.
+                    currentExport.exporter.awaitIFrame();
+                    currentExport.captureFrame(0);
                     context.getSource().sendFeedback(new LiteralText("Captured predicted frame."));
                     return 0;
                 }).build();
@@ -165,6 +175,9 @@ public final class ExportCommand {
 
                             try {
                                 FileOutputStream os = new FileOutputStream(targetFile);
+                                currentExport.exporter.awaitIFrame();
+                                // Capture any updates that were deferred past the last frame.
+                                currentExport.captureFrame(0);
                                 currentExport.exporter.save(os);
                                 
                             } catch (IOException e) {
@@ -184,6 +197,7 @@ public final class ExportCommand {
                     if (currentExport == null) {
                         throw new CommandException(new LiteralText("No Vcap recording active!"));
                     }
+                    ReplayExportMod.getInstance().removeOnBlockUpdated(currentExport.listener);
                     currentExport = null;
                     return 0;
                 }).build();
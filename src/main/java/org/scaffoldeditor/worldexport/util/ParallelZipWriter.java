@@ -0,0 +1,579 @@
+package org.scaffoldeditor.worldexport.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * Writes a zip archive, compressing entries on a pool of worker threads. The
+ * entries are still written in the order they were added, so the archive is
+ * the same no matter how the work was scheduled.
+ * </p>
+ * <p>
+ * Each entry's compression level is chosen by its file extension. Formats that
+ * are already compressed, such as PNGs, are stored as-is by default. Archives
+ * with more than 65535 entries, or larger than 4 GB, are written as ZIP64.
+ * </p>
+ * <p>
+ * Entries added with {@link #write(String, byte[])} or
+ * {@link #openEntry(String)} are compressed in parallel. Only a limited number
+ * are held in memory at once; adding an entry blocks while the oldest ones are
+ * still being compressed. Entries too large to hold in memory can be streamed
+ * with {@link #openStream(String)} instead.
+ * </p>
+ * <p>
+ * Like {@link java.util.zip.ZipOutputStream}, this class isn't thread safe;
+ * only the compression runs on other threads.
+ * </p>
+ */
+public class ParallelZipWriter implements Closeable {
+
+    /**
+     * A compression level that stores entries without compressing them.
+     */
+    public static final int STORED = -2;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    /**
+     * An entry that has been compressed and is ready to be written.
+     */
+    private static class CompressedEntry {
+        final String name;
+        final int method;
+        final long crc;
+        final long size;
+        final byte[] data;
+
+        CompressedEntry(String name, int method, long crc, long size, byte[] data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+
+    /**
+     * An entry that has been written, for the central directory.
+     */
+    private static class WrittenEntry {
+        final byte[] name;
+        final int flags;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        WrittenEntry(byte[] name, int flags, int method, long crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the archive, so entry offsets are known.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private final CountingOutputStream out;
+    private final ForkJoinPool pool; // Null if compressing on the calling thread.
+    private final int window;
+
+    private final Deque<CompletableFuture<CompressedEntry>> pending = new ArrayDeque<>();
+    private final List<WrittenEntry> written = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+
+    private final Map<String, Integer> levels = new HashMap<>();
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private final int dosTime;
+    private final int dosDate;
+
+    private boolean streaming;
+    private boolean finished;
+
+    /**
+     * Create a zip writer.
+     * @param out         Stream to write the archive to. Isn't closed when the
+     *                    archive is finished.
+     * @param parallelism Number of threads to compress with. <code>1</code>
+     *                    compresses every entry on the calling thread.
+     */
+    public ParallelZipWriter(OutputStream out, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 65536));
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.window = parallelism * 4;
+
+        levels.put("png", STORED);
+        levels.put("vcap", STORED);
+
+        Calendar now = Calendar.getInstance();
+        dosTime = (now.get(Calendar.HOUR_OF_DAY) << 11) | (now.get(Calendar.MINUTE) << 5)
+                | (now.get(Calendar.SECOND) >> 1);
+        dosDate = (Math.max(now.get(Calendar.YEAR) - 1980, 0) << 9) | ((now.get(Calendar.MONTH) + 1) << 5)
+                | now.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Set the compression level of entries with a given file extension.
+     * @param extension File extension, without the dot.
+     * @param level     A deflate level from <code>0</code> to <code>9</code>,
+     *                  {@link Deflater#DEFAULT_COMPRESSION}, or {@link #STORED}.
+     * @return <code>this</code>
+     */
+    public ParallelZipWriter setLevel(String extension, int level) {
+        levels.put(extension.toLowerCase(Locale.ROOT), checkLevel(level));
+        return this;
+    }
+
+    /**
+     * Set the compression level of entries whose extension has no level of its
+     * own. Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param level A deflate level from <code>0</code> to <code>9</code>,
+     *              {@link Deflater#DEFAULT_COMPRESSION}, or {@link #STORED}.
+     * @return <code>this</code>
+     */
+    public ParallelZipWriter setDefaultLevel(int level) {
+        defaultLevel = checkLevel(level);
+        return this;
+    }
+
+    /**
+     * Get the compression level an entry will be written with.
+     * @param name Entry name.
+     * @return Compression level.
+     */
+    public int getLevel(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot < name.lastIndexOf('/')) return defaultLevel;
+        return levels.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), defaultLevel);
+    }
+
+    private static int checkLevel(int level) {
+        if (level != STORED && level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        return level;
+    }
+
+    /**
+     * Add an entry to the archive. It's compressed in the background.
+     * @param name Entry name.
+     * @param data Entry contents. Must not be modified afterwards.
+     * @throws IOException If an earlier entry couldn't be written.
+     */
+    public void write(String name, byte[] data) throws IOException {
+        checkOpen();
+        addName(name);
+        int level = getLevel(name);
+
+        if (pool == null) {
+            writeEntry(compress(name, data, level));
+            return;
+        }
+
+        pending.add(CompletableFuture.supplyAsync(() -> compress(name, data, level), pool));
+        while (pending.size() >= window) {
+            writeEntry(join(pending.removeFirst()));
+        }
+        // Write whatever is already done to keep memory down.
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeEntry(join(pending.removeFirst()));
+        }
+    }
+
+    /**
+     * Open an entry for writing. Its contents are buffered, and the entry is
+     * compressed in the background once the stream is closed.
+     * @param name Entry name.
+     * @return A stream to write the entry's contents to. Must be closed.
+     */
+    public OutputStream openEntry(String name) {
+        checkOpen();
+        return new ByteArrayOutputStream() {
+            boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                ParallelZipWriter.this.write(name, toByteArray());
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Open an entry and stream its contents straight into the archive on the
+     * calling thread. Use this for entries that are too large to buffer. Every
+     * pending entry is written first, and no other entry may be added until
+     * the stream is closed.
+     * </p>
+     * <p>
+     * Streamed entries are always deflated, as the size and checksum of a
+     * stored entry must be known up front. Entries whose level is
+     * {@link #STORED} are deflated at level <code>0</code>, which doesn't
+     * spend any time compressing.
+     * </p>
+     *
+     * @param name Entry name. Streamed entries may not be larger than 4 GB.
+     * @return A stream to write the entry's contents to. Must be closed.
+     * @throws IOException If an IO exception occurs.
+     */
+    public OutputStream openStream(String name) throws IOException {
+        checkOpen();
+        addName(name);
+        flushPending();
+
+        int level = getLevel(name);
+        Deflater deflater = new Deflater(level == STORED ? Deflater.NO_COMPRESSION : level, true);
+        CRC32 crc = new CRC32();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        long offset = out.count;
+
+        writeLocalHeader(nameBytes, flags, METHOD_DEFLATED, 0, 0, 0);
+        long dataStart = out.count;
+        streaming = true;
+
+        // The deflater stream must not close the archive.
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+
+        return new DeflaterOutputStream(target, deflater, 8192) {
+            long size;
+            boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                super.write(b, off, len);
+                crc.update(b, off, len);
+                size += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                finish();
+                deflater.end();
+                streaming = false;
+
+                long compressedSize = ParallelZipWriter.this.out.count - dataStart;
+                if (size > MAX_32 || compressedSize > MAX_32) {
+                    throw new ZipException("Streamed entry " + name + " is larger than 4 GB.");
+                }
+                writeInt(DATA_DESCRIPTOR_SIG);
+                writeInt((int) crc.getValue());
+                writeInt((int) compressedSize);
+                writeInt((int) size);
+
+                written.add(new WrittenEntry(nameBytes, flags, METHOD_DEFLATED, crc.getValue(),
+                        compressedSize, size, offset));
+            }
+        };
+    }
+
+    private static CompressedEntry compress(String name, byte[] data, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        if (level == STORED) {
+            return new CompressedEntry(name, METHOD_STORED, crc.getValue(), data.length, data);
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                compressed.write(buffer, 0, len);
+            }
+            return new CompressedEntry(name, METHOD_DEFLATED, crc.getValue(), data.length, compressed.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static CompressedEntry join(CompletableFuture<CompressedEntry> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("Error compressing zip entry.", e.getCause());
+        }
+    }
+
+    private void writeEntry(CompressedEntry entry) throws IOException {
+        byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+        long offset = out.count;
+
+        writeLocalHeader(nameBytes, FLAG_UTF8, entry.method, entry.crc, entry.data.length, entry.size);
+        out.write(entry.data);
+
+        written.add(new WrittenEntry(nameBytes, FLAG_UTF8, entry.method, entry.crc,
+                entry.data.length, entry.size, offset));
+    }
+
+    private void writeLocalHeader(byte[] name, int flags, int method, long crc, long compressedSize, long size)
+            throws IOException {
+        boolean zip64 = compressedSize >= MAX_32 || size >= MAX_32;
+
+        writeInt(LOCAL_HEADER_SIG);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(flags);
+        writeShort(method);
+        writeShort(dosTime);
+        writeShort(dosDate);
+        writeInt((int) crc);
+        writeInt(zip64 ? (int) MAX_32 : (int) compressedSize);
+        writeInt(zip64 ? (int) MAX_32 : (int) size);
+        writeShort(name.length);
+        writeShort(zip64 ? 20 : 0);
+        out.write(name);
+
+        if (zip64) {
+            // The local ZIP64 extra field always has both sizes.
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(size);
+            writeLong(compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(WrittenEntry entry) throws IOException {
+        boolean bigSize = entry.size >= MAX_32;
+        boolean bigCompressed = entry.compressedSize >= MAX_32;
+        boolean bigOffset = entry.offset >= MAX_32;
+        int extraLength = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        writeInt(CENTRAL_HEADER_SIG);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION); // Made by
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION); // Needed
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeShort(dosTime);
+        writeShort(dosDate);
+        writeInt((int) entry.crc);
+        writeInt(bigCompressed ? (int) MAX_32 : (int) entry.compressedSize);
+        writeInt(bigSize ? (int) MAX_32 : (int) entry.size);
+        writeShort(entry.name.length);
+        writeShort(zip64 ? extraLength + 4 : 0);
+        writeShort(0); // Comment length
+        writeShort(0); // Disk number
+        writeShort(0); // Internal attributes
+        writeInt(0); // External attributes
+        writeInt(bigOffset ? (int) MAX_32 : (int) entry.offset);
+        out.write(entry.name);
+
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extraLength);
+            if (bigSize) writeLong(entry.size);
+            if (bigCompressed) writeLong(entry.compressedSize);
+            if (bigOffset) writeLong(entry.offset);
+        }
+    }
+
+    /**
+     * Write every pending entry, waiting for them to finish compressing.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void flushPending() throws IOException {
+        while (!pending.isEmpty()) {
+            writeEntry(join(pending.removeFirst()));
+        }
+    }
+
+    /**
+     * Write the remaining entries and the central directory. The underlying
+     * stream is left open.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        if (streaming) {
+            throw new IllegalStateException("A streamed entry is still open.");
+        }
+        try {
+            flushPending();
+        } finally {
+            finished = true;
+            if (pool != null) pool.shutdownNow();
+        }
+
+        long centralStart = out.count;
+        for (WrittenEntry entry : written) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = out.count - centralStart;
+        int count = written.size();
+
+        boolean zip64 = count >= MAX_16 || centralStart >= MAX_32 || centralSize >= MAX_32;
+        if (zip64) {
+            long zip64End = out.count;
+            writeInt(ZIP64_END_SIG);
+            writeLong(44); // Size of the rest of the record
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0); // This disk
+            writeInt(0); // Disk with the central directory
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralStart);
+
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0);
+            writeLong(zip64End);
+            writeInt(1); // Total disks
+        }
+
+        writeInt(END_SIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? MAX_16 : count);
+        writeShort(zip64 ? MAX_16 : count);
+        writeInt(zip64 ? (int) MAX_32 : (int) centralSize);
+        writeInt(zip64 ? (int) MAX_32 : (int) centralStart);
+        writeShort(0); // Comment length
+        out.flush();
+    }
+
+    /**
+     * Stop writing without finishing the archive, discarding any pending
+     * entries and shutting down the compression threads. Use this when writing
+     * fails partway through; the partial archive isn't valid. The underlying
+     * stream is left open. Does nothing if the archive was already finished.
+     */
+    public void abort() {
+        if (finished) return;
+        finished = true;
+        for (CompletableFuture<CompressedEntry> entry : pending) {
+            entry.cancel(false);
+        }
+        pending.clear();
+        if (pool != null) pool.shutdownNow();
+    }
+
+    /**
+     * Finish the archive and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Archive has already been finished.");
+        }
+        if (streaming) {
+            throw new IllegalStateException("A streamed entry is still open.");
+        }
+    }
+
+    private void addName(String name) throws ZipException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value);
+        writeShort(value >>> 16);
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+}
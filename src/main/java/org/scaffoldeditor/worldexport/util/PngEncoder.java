@@ -0,0 +1,217 @@
+package org.scaffoldeditor.worldexport.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>
+ * Writes 8-bit RGBA images in PNG format, one row at a time, straight to an
+ * output stream. Only two rows of the image are held in memory at once,
+ * regardless of its size.
+ * </p>
+ * <p>
+ * Each row is filtered with whichever of the five PNG filters leaves the
+ * smallest sum of absolute differences, which is the heuristic most encoders
+ * use.
+ * </p>
+ */
+public final class PngEncoder {
+    private PngEncoder() {}
+
+    /**
+     * Reads the pixels of the image to encode.
+     */
+    public interface PixelReader {
+        /**
+         * Get the color of a pixel.
+         * @param x Pixel X.
+         * @param y Pixel Y.
+         * @return Color packed as <code>0xAABBGGRR</code>, which is how
+         *         <code>NativeImage</code> stores RGBA pixels.
+         */
+        int getPixel(int x, int y);
+    }
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int CHUNK_SIZE = 65536;
+
+    /**
+     * Encode an image.
+     * @param width  Image width.
+     * @param height Image height.
+     * @param pixels Pixel source. Called once per pixel, in row order.
+     * @param out    Stream to write to. Isn't closed.
+     * @param level  Deflate level, from <code>0</code> to <code>9</code>, or
+     *               {@link Deflater#DEFAULT_COMPRESSION}.
+     * @throws IOException If an I/O exception occurs.
+     */
+    public static void write(int width, int height, PixelReader pixels, OutputStream out, int level) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = COLOR_TYPE_RGBA;
+        writeChunk(out, "IHDR", header, header.length);
+
+        int rowLength = width * BYTES_PER_PIXEL;
+        byte[] previous = new byte[rowLength];
+        byte[] current = new byte[rowLength];
+        byte[] filtered = new byte[rowLength + 1];
+
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(out), deflater, CHUNK_SIZE);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int color = pixels.getPixel(x, y);
+                    int i = x * BYTES_PER_PIXEL;
+                    current[i] = (byte) color;
+                    current[i + 1] = (byte) (color >> 8);
+                    current[i + 2] = (byte) (color >> 16);
+                    current[i + 3] = (byte) (color >> 24);
+                }
+                filterRow(current, previous, filtered);
+                idat.write(filtered);
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            idat.close();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    /**
+     * Filter a row with whichever filter is likely to compress best.
+     * @param row      Raw row.
+     * @param previous Raw row above, or zeros for the first row.
+     * @param dest     Destination. The first byte receives the filter type.
+     */
+    private static void filterRow(byte[] row, byte[] previous, byte[] dest) {
+        int bestFilter = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int filter = 0; filter < 5; filter++) {
+            long sum = 0;
+            for (int i = 0; i < row.length && sum < bestSum; i++) {
+                sum += Math.abs(filter(filter, row, previous, i));
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                bestFilter = filter;
+            }
+        }
+
+        dest[0] = (byte) bestFilter;
+        for (int i = 0; i < row.length; i++) {
+            dest[i + 1] = filter(bestFilter, row, previous, i);
+        }
+    }
+
+    private static byte filter(int filter, byte[] row, byte[] previous, int i) {
+        int raw = row[i] & 0xFF;
+        int left = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+        int up = previous[i] & 0xFF;
+        switch (filter) {
+            case 1: return (byte) (raw - left);
+            case 2: return (byte) (raw - up);
+            case 3: return (byte) (raw - ((left + up) >> 1));
+            case 4:
+                int upLeft = i >= BYTES_PER_PIXEL ? previous[i - BYTES_PER_PIXEL] & 0xFF : 0;
+                return (byte) (raw - paeth(left, up, upLeft));
+            default: return (byte) raw;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    private static void putInt(byte[] dest, int offset, int value) {
+        dest[offset] = (byte) (value >>> 24);
+        dest[offset + 1] = (byte) (value >>> 16);
+        dest[offset + 2] = (byte) (value >>> 8);
+        dest[offset + 3] = (byte) value;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] word = new byte[4];
+
+        putInt(word, 0, length);
+        out.write(word);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    /**
+     * Splits compressed image data into IDAT chunks.
+     */
+    private static class IdatOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        IdatOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count == 0) return;
+            writeChunk(out, "IDAT", buffer, count);
+            count = 0;
+        }
+
+        /**
+         * Writes the last chunk. Doesn't close the underlying stream.
+         */
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+}
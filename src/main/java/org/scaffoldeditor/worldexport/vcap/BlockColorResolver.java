@@ -0,0 +1,141 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.scaffoldeditor.worldexport.mixins.BlockColorsAccessor;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.BlockRenderView;
+import net.minecraft.world.WorldView;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeEffects;
+
+/**
+ * Resolves the tint colors of blocks. Blocks without a color provider are
+ * white, and are resolved without querying the world at all.
+ */
+public final class BlockColorResolver {
+    private BlockColorResolver() {}
+
+    /**
+     * The color of blocks that aren't tinted.
+     */
+    public static final int WHITE = 0xFFFFFF;
+
+    private static final MinecraftClient client = MinecraftClient.getInstance();
+
+    /**
+     * Check whether a block state has a color provider.
+     * @param state Block state.
+     * @return If the state's color may vary.
+     */
+    public static boolean isTinted(BlockState state) {
+        return ((BlockColorsAccessor) client.getBlockColors()).getProviders()
+                .get(Registry.BLOCK.getRawId(state.getBlock())) != null;
+    }
+
+    /**
+     * Get the tint color of a block.
+     * @param state Block state.
+     * @param world World the block is in.
+     * @param pos   Block position.
+     * @return Packed RGB color.
+     */
+    public static int getColor(BlockState state, BlockRenderView world, BlockPos pos) {
+        if (!isTinted(state)) return WHITE;
+        return client.getBlockColors().getColor(state, world, pos, 0) & 0xFFFFFF;
+    }
+
+    /**
+     * Resolves colors within a single section. If every biome that can be
+     * blended into the section is the same, and that biome doesn't modify its
+     * grass color by position, a tinted state has the same color everywhere in
+     * the section and only needs to be resolved once.
+     */
+    public static class SectionCache {
+        private final BlockRenderView world;
+        private final WorldView biomes;
+        private final int sectionX;
+        private final int sectionY;
+        private final int sectionZ;
+
+        private Boolean uniform;
+        private final Reference2IntMap<BlockState> colors = new Reference2IntOpenHashMap<>();
+
+        /**
+         * Create a color cache for a section.
+         * @param world    World the section is in. May be a {@link WorldSnapshot}.
+         * @param biomes   World to sample biomes from.
+         * @param sectionX Section X.
+         * @param sectionY Section Y.
+         * @param sectionZ Section Z.
+         */
+        public SectionCache(BlockRenderView world, WorldView biomes, int sectionX, int sectionY, int sectionZ) {
+            this.world = world;
+            this.biomes = biomes;
+            this.sectionX = sectionX;
+            this.sectionY = sectionY;
+            this.sectionZ = sectionZ;
+        }
+
+        /**
+         * Get the color of a tinted block in this section.
+         * @param state Block state. Must be tinted; see {@link BlockColorResolver#isTinted}.
+         * @param pos   Block position.
+         * @return Packed RGB color.
+         */
+        public int get(BlockState state, BlockPos pos) {
+            if (!isUniform()) {
+                return client.getBlockColors().getColor(state, world, pos, 0) & 0xFFFFFF;
+            }
+
+            if (colors.containsKey(state)) {
+                return colors.getInt(state);
+            }
+            int color = client.getBlockColors().getColor(state, world, pos, 0) & 0xFFFFFF;
+            colors.put(state, color);
+            return color;
+        }
+
+        /**
+         * Whether every block in the section blends the same biome colors.
+         * Checked the first time a tinted block is resolved.
+         */
+        private boolean isUniform() {
+            if (uniform == null) {
+                uniform = checkUniform();
+            }
+            return uniform;
+        }
+
+        private boolean checkUniform() {
+            int radius = client.options.biomeBlendRadius;
+            int minX = sectionX * 16 - radius;
+            int maxX = sectionX * 16 + 15 + radius;
+            int minY = sectionY * 16;
+            int maxY = sectionY * 16 + 15;
+            int minZ = sectionZ * 16 - radius;
+            int maxZ = sectionZ * 16 + 15 + radius;
+
+            // Biome access jitters each block into one of two quarts per axis.
+            Biome first = null;
+            for (int qx = (minX - 2) >> 2; qx <= ((maxX - 2) >> 2) + 1; qx++) {
+                for (int qy = (minY - 2) >> 2; qy <= ((maxY - 2) >> 2) + 1; qy++) {
+                    for (int qz = (minZ - 2) >> 2; qz <= ((maxZ - 2) >> 2) + 1; qz++) {
+                        Biome biome = biomes.getBiomeForNoiseGen(qx, qy, qz);
+                        if (first == null) {
+                            first = biome;
+                        } else if (biome != first) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            // Swamps vary their grass color with noise.
+            return first.getEffects().getGrassColorModifier() == BiomeEffects.GrassColorModifier.NONE;
+        }
+    }
+}
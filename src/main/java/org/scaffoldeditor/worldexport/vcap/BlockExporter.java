@@ -4,29 +4,36 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.Nullable;
 import org.scaffoldeditor.worldexport.vcap.ExportContext.ModelEntry;
+import org.scaffoldeditor.worldexport.vcap.SectionDeduplicator.Content;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.render.block.BlockModels;
 import net.minecraft.client.render.block.BlockRenderManager;
+import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.nbt.NbtByteArray;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtIntArray;
 import net.minecraft.nbt.NbtIo;
 import net.minecraft.nbt.NbtList;
-import net.minecraft.nbt.NbtString;
+import net.minecraft.nbt.NbtLongArray;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Direction;
+import net.minecraft.world.EmptyBlockView;
 import net.minecraft.world.WorldAccess;
-import net.minecraft.world.chunk.Chunk;
-import net.minecraft.world.chunk.ChunkSection;
 
 public final class BlockExporter {
     private BlockExporter() {
@@ -44,28 +51,153 @@ public final class BlockExporter {
         NbtIo.writeCompressed(tag, os);
     }
 
+    /**
+     * Capture every section within a bounding box. If the context's
+     * {@link VcapSettings#getParallelism() parallelism} is greater than one, the
+     * sections are encoded on a fork-join pool. Either way, the sections are
+     * returned in the same order. If section deduplication is enabled, sections
+     * identical to an earlier one are replaced with a reference to it.
+     * 
+     * @param world    World to capture.
+     * @param minChunk Bounding box min (inclusive).
+     * @param maxChunk Bounding box max (exclusive).
+     * @param context  The export context.
+     * @return A list of encoded sections.
+     */
     public static NbtList exportStill(WorldAccess world, ChunkPos minChunk, ChunkPos maxChunk, ExportContext context) {
-        NbtList sectionTag = new NbtList();
+        return exportStill(WorldSnapshot.capture(world, minChunk, maxChunk, context.getSettings()), context);
+    }
 
-        for (int x = minChunk.x; x < maxChunk.x; x++) {
-            for (int z = minChunk.z; z < maxChunk.z; z++) {
-                if (!world.isChunkLoaded(x, z))
-                    continue;
-                Chunk chunk = world.getChunk(x, z);
-                ChunkSection[] sections = chunk.getSectionArray();
-                for (int i = 0; i < sections.length; i++) {
-                    if (sections[i] == null) continue;
-
-                    int y = chunk.sectionIndexToCoord(i);
-                    if (y < context.getSettings().getLowerDepth()) continue;
-                    
-                    sectionTag.add(writeSection(sections[i], world, x, y, z, context));
-                }
+    /**
+     * Capture every section of a world snapshot. Only reads from the snapshot,
+     * so it may be called from any thread.
+     * 
+     * @param snapshot Snapshot to capture.
+     * @param context  The export context.
+     * @return A list of encoded sections.
+     * @see #exportStill(WorldAccess, ChunkPos, ChunkPos, ExportContext)
+     */
+    public static NbtList exportStill(WorldSnapshot snapshot, ExportContext context) {
+        List<SectionJob> jobs = new ArrayList<>();
+        for (long key : snapshot.getTargets()) {
+            int x = ChunkSectionPos.unpackX(key);
+            int y = ChunkSectionPos.unpackY(key);
+            int z = ChunkSectionPos.unpackZ(key);
+            jobs.add(new SectionJob(snapshot.getSection(x, y, z), x, y, z));
+        }
+
+        NbtCompound[] results = new NbtCompound[jobs.size()];
+        Content[] contents = context.getSettings().shouldDedupeSections() ? new Content[jobs.size()] : null;
+        int parallelism = context.getSettings().getParallelism();
+
+        if (parallelism <= 1 || jobs.size() <= 1) {
+            for (int i = 0; i < results.length; i++) {
+                encodeJob(jobs, results, contents, i, snapshot, context);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new SectionTask(jobs, results, contents, 0, results.length, snapshot, context));
+            } finally {
+                pool.shutdown();
             }
         }
 
+        NbtList sectionTag = new NbtList();
+        if (contents != null) {
+            SectionDeduplicator deduplicator = new SectionDeduplicator(context.sectionStats);
+            for (int i = 0; i < results.length; i++) {
+                sectionTag.add(deduplicator.add(results[i], contents[i]));
+            }
+        } else {
+            for (NbtCompound section : results) {
+                sectionTag.add(section);
+            }
+        }
         return sectionTag;
     }
+
+    /**
+     * Capture a single section of a world snapshot.
+     * 
+     * @param snapshot Snapshot to capture from. Must contain the section's
+     *                 neighbors; see {@link WorldSnapshot#captureAround}.
+     * @param sectionX Section X.
+     * @param sectionY Section Y.
+     * @param sectionZ Section Z.
+     * @param context  The export context.
+     * @return The encoded section, or <code>null</code> if the section is empty
+     *         and shouldn't be written.
+     */
+    @Nullable
+    public static NbtCompound exportSection(WorldSnapshot snapshot, int sectionX, int sectionY, int sectionZ,
+            ExportContext context) {
+        WorldSnapshot.Section section = snapshot.getSection(sectionX, sectionY, sectionZ);
+        if (section == null) return null;
+        return writeSection(section, snapshot, sectionX, sectionY, sectionZ, context);
+    }
+
+    private static class SectionJob {
+        final WorldSnapshot.Section section;
+        final int x;
+        final int y;
+        final int z;
+
+        SectionJob(WorldSnapshot.Section section, int x, int y, int z) {
+            this.section = section;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private static void encodeJob(List<SectionJob> jobs, NbtCompound[] results, @Nullable Content[] contents,
+            int index, WorldSnapshot snapshot, ExportContext context) {
+        SectionJob job = jobs.get(index);
+        results[index] = writeSection(job.section, snapshot, job.x, job.y, job.z, context);
+        if (contents != null) {
+            // Hash here so it's spread across the worker threads.
+            contents[index] = Content.of(results[index]);
+        }
+    }
+
+    /**
+     * Encodes a range of section jobs, writing each result into the slot
+     * matching its job so the output order doesn't depend on scheduling.
+     */
+    private static class SectionTask extends RecursiveAction {
+        final List<SectionJob> jobs;
+        final NbtCompound[] results;
+        final Content[] contents;
+        final int start;
+        final int end;
+        final WorldSnapshot snapshot;
+        final ExportContext context;
+
+        SectionTask(List<SectionJob> jobs, NbtCompound[] results, @Nullable Content[] contents,
+                int start, int end, WorldSnapshot snapshot, ExportContext context) {
+            this.jobs = jobs;
+            this.results = results;
+            this.contents = contents;
+            this.start = start;
+            this.end = end;
+            this.snapshot = snapshot;
+            this.context = context;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                for (int i = start; i < end; i++) {
+                    encodeJob(jobs, results, contents, i, snapshot, context);
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new SectionTask(jobs, results, contents, start, mid, snapshot, context),
+                        new SectionTask(jobs, results, contents, mid, end, snapshot, context));
+            }
+        }
+    }
     
     /**
      * Generate a mesh ID from a block in the world.
@@ -100,10 +232,21 @@ public final class BlockExporter {
         return id;
     }
 
-    private static NbtCompound writeSection(ChunkSection section, WorldAccess world,
+    /**
+     * Get the model ID that an air block in an exported section would have.
+     * @param context The export context.
+     * @return Air model ID.
+     */
+    public static String getAirID(ExportContext context) {
+        BlockState air = Blocks.AIR.getDefaultState();
+        ModelEntry entry = new ModelEntry(client.getBlockRenderManager().getModel(air),
+                unpackFaces(OcclusionGrid.ALL_FACES), !air.isOpaque(), air);
+        return context.getID(entry, BlockModels.getModelId(air).toString());
+    }
+
+    private static NbtCompound writeSection(WorldSnapshot.Section section, WorldSnapshot world,
             int sectionX, int sectionY, int sectionZ, ExportContext context) {
 
-        BlockRenderManager dispatcher = client.getBlockRenderManager();
         LogManager.getLogger().debug("Exporting section [" + sectionX + ", " + sectionY + ", " + sectionZ + "]");
 
         NbtCompound tag = new NbtCompound();
@@ -111,85 +254,265 @@ public final class BlockExporter {
         tag.putInt("y", sectionY);
         tag.putInt("z", sectionZ);
 
-        List<String> palette = new ArrayList<>();
-        int[] blocks = new int[16 * 16 * 16];
+        // Read the section's native palette so that per-state work is only done once.
+        StateCache states = new StateCache(section, context);
+
+        ModelPalette palette = new ModelPalette();
+        ColorPalette colorPalette = new ColorPalette();
 
-        List<Byte> colorPalette = new ArrayList<>();
+        OcclusionGrid occlusion = new OcclusionGrid();
+        fillHalo(occlusion, world, sectionX, sectionY, sectionZ);
+
+        // Buried sections of a single opaque cube, such as deep stone, are
+        // the same throughout and don't need to be looked at voxel by voxel.
+        if (section.getPaletteSize() == 1) {
+            StateInfo info = states.get(0);
+            if (info.fullCube && info.fluid == null && !info.tinted && occlusion.isHaloFull()) {
+                palette.add(info.getID(0, context));
+                colorPalette.add(BlockColorResolver.WHITE);
+                writePalettedData(tag, palette.toIndices(context.modelTable), null, colorPalette, null, false);
+                return tag;
+            }
+        }
+
+        int[] blocks = new int[16 * 16 * 16];
         byte[] colors = new byte[16 * 16 * 16];
 
-        IntStream.range(0, 16).forEach(y -> {
-            IntStream.range(0, 16).forEach(z -> {
-                IntStream.range(0, 16).forEach(x -> {
-                    BlockState state = section.getBlockStateContainer().get(x, y, z);
-                    BlockPos worldPos = new BlockPos(sectionX * 16 + x, sectionY * 16 + y, sectionZ * 16 + z);
+        for (int index = 0; index < blocks.length; index++) {
+            StateInfo info = states.get(section.getPaletteIndex(index));
+            occlusion.set(index & 15, index >> 8, (index >> 4) & 15, info.opaque, info.fullCube);
+        }
+
+        BlockColorResolver.SectionCache sectionColors = new BlockColorResolver.SectionCache(
+                world, world.getWorld(), sectionX, sectionY, sectionZ);
+        BlockPos.Mutable worldPos = new BlockPos.Mutable();
+        BlockPos.Mutable neighbor = new BlockPos.Mutable();
+        int[] rowFaces = new int[16];
+        int[] rowUnresolved = new int[16];
+
+        // Palette storage uses the same YZX ordering as Vcap sections.
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                occlusion.computeRow(y, z, rowFaces, rowUnresolved);
+
+                for (int x = 0; x < 16; x++) {
+                    int index = (y * 16 + z) * 16 + x;
+                    StateInfo info = states.get(section.getPaletteIndex(index));
+                    worldPos.set(sectionX * 16 + x, sectionY * 16 + y, sectionZ * 16 + z);
                     String id;
 
-                    FluidState fluid = state.getFluidState();
-                    if (!fluid.isEmpty() && context.getSettings().shouldExportFluids()) {
-                        id = FluidHandler.writeFluidMesh(world, worldPos, context, fluid);
+                    if (info.fluid != null) {
+                        id = FluidHandler.writeFluidMesh(world, worldPos.toImmutable(), context, info.fluid);
+                    } else if (info.air) {
+                        id = info.getID(OcclusionGrid.ALL_FACES, context);
                     } else {
-                        BlockPos.Mutable mutable = worldPos.mutableCopy();
-                        boolean[] faces = new boolean[6];
-    
-                        for (int i = 0; i < DIRECTIONS.length; i++) {
+                        int faces = rowFaces[x];
+                        int unresolved = rowUnresolved[x];
+                        // Only blocks with non-full shapes need to check the world.
+                        for (int i = 0; unresolved != 0; i++, unresolved >>>= 1) {
+                            if ((unresolved & 1) == 0) continue;
                             Direction direction = DIRECTIONS[i];
-                            mutable.set(worldPos, direction);
-                            faces[i] = Block.shouldDrawSide(state, world, worldPos, direction, mutable);
+                            neighbor.set(worldPos, direction);
+                            if (Block.shouldDrawSide(info.state, world, worldPos, direction, neighbor)) {
+                                faces |= 1 << i;
+                            }
                         }
-    
-                        ModelEntry entry = new ModelEntry(dispatcher.getModel(state), faces, !state.isOpaque(), state);
-                        id = context.getID(entry, BlockModels.getModelId(state).toString());
+                        id = info.getID(faces, context);
                     }
-                    
-                    int color = client.getBlockColors().getColor(state, world, worldPos, 0);
-
-                    byte r = (byte)(color >> 16 & 255);
-                    byte g = (byte)(color >> 8 & 255);
-                    byte b = (byte)(color & 255);
-
-                    // We don't want threads overwriting each other in the palette
-                    int index;
-                    int colorIndex = -1;
-                    synchronized(palette) {
-                        index = palette.indexOf(id);
-                        if (index < 0) {
-                            index = palette.size();
-                            palette.add(id);
-                        }
 
-                        // Look for color in color palette
-                        for (int i = 0; i < colorPalette.size(); i += 3) {
-                            if (colorPalette.get(i).equals(r) && colorPalette.get(i + 1).equals(g) && colorPalette.get(i + 2).equals(b)) {
-                                colorIndex = i;
-                                break;
-                            }
-                        }
-                        if (colorIndex < 0) {
-                            colorIndex = colorPalette.size();
-                            colorPalette.add(r);
-                            colorPalette.add(g);
-                            colorPalette.add(b);
-                        }
+                    int color = info.tinted ? sectionColors.get(info.state, worldPos) : BlockColorResolver.WHITE;
+
+                    blocks[index] = palette.add(id);
+                    // Color indices point to the first byte of the color in the palette.
+                    colors[index] = (byte) (colorPalette.add(color) * 3);
+                }
+            }
+        }
+        writePalettedData(tag, palette.toIndices(context.modelTable), blocks, colorPalette, colors,
+                context.getSettings().shouldPackBlocks());
+
+        return tag;
+    }
+
+    /**
+     * Copy the blocks bordering a section into the halo of its occlusion grid.
+     * Neighbors that aren't loaded are treated as air, the same as the client
+     * world does.
+     */
+    private static void fillHalo(OcclusionGrid grid, WorldSnapshot world, int sectionX, int sectionY, int sectionZ) {
+        for (Direction direction : DIRECTIONS) {
+            WorldSnapshot.Section neighbor = world.getSection(sectionX + direction.getOffsetX(),
+                    sectionY + direction.getOffsetY(), sectionZ + direction.getOffsetZ());
+            if (neighbor == null) continue;
+
+            int side = direction.getDirection() == Direction.AxisDirection.POSITIVE ? 16 : -1;
+            for (int i = 0; i < 16; i++) {
+                for (int j = 0; j < 16; j++) {
+                    int x, y, z;
+                    switch (direction.getAxis()) {
+                        case X:
+                            x = side; y = i; z = j;
+                            break;
+                        case Y:
+                            x = i; y = side; z = j;
+                            break;
+                        default:
+                            x = i; y = j; z = side;
                     }
+                    BlockState state = neighbor.getBlockState(x & 15, y & 15, z & 15);
+                    grid.set(x, y, z, state.isOpaque(), isFullCube(state));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether a block state is an opaque full cube, regardless of where
+     * it's placed. States with dynamic bounds are never considered full cubes.
+     */
+    private static boolean isFullCube(BlockState state) {
+        return state.isOpaque() && !state.getBlock().hasDynamicBounds()
+                && state.isOpaqueFullCube(EmptyBlockView.INSTANCE, BlockPos.ORIGIN);
+    }
+
+    /**
+     * Convert a face bitmask into the face array used by {@link ModelEntry}.
+     * @param faces Bitmask where bit <code>n</code> represents the visibility of
+     *              <code>DIRECTIONS[n]</code>.
+     * @return A 6-element face array.
+     */
+    public static boolean[] unpackFaces(int faces) {
+        boolean[] array = new boolean[DIRECTIONS.length];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = (faces & (1 << i)) != 0;
+        }
+        return array;
+    }
 
-                    blocks[(y * 16 + z) * 16 + x] = index;
-                    colors[(y * 16 + z) * 16 + x] = (byte) colorIndex;
-                });
-            });
-        });
-        NbtList paletteTag = new NbtList();
-        for (String entry : palette) paletteTag.add(NbtString.of(entry));
-        tag.put("palette", paletteTag);
+    /**
+     * Everything about a block state that doesn't depend on where it's placed.
+     */
+    private static class StateInfo {
+        final BlockState state;
+        final BakedModel model;
+        final String modelName;
+        final boolean transparent;
+        final boolean tinted;
+        final boolean air;
+        final boolean opaque;
+        final boolean fullCube;
 
-        NbtIntArray blockTag = new NbtIntArray(blocks);
-        tag.put("blocks", blockTag);
+        /**
+         * The fluid to render instead of the block model, if any.
+         */
+        @Nullable
+        final FluidState fluid;
 
-        NbtByteArray colorPaletteTag = new NbtByteArray(colorPalette);
-        tag.put("colorPalette", colorPaletteTag);
+        /**
+         * Model IDs, indexed by face bitmask.
+         */
+        final String[] ids = new String[1 << 6];
 
-        NbtByteArray colorsTag = new NbtByteArray(colors);
-        tag.put("colors", colorsTag);
+        StateInfo(BlockState state, ExportContext context) {
+            this.state = state;
+            this.model = client.getBlockRenderManager().getModel(state);
+            this.modelName = BlockModels.getModelId(state).toString();
+            this.transparent = !state.isOpaque();
+            this.tinted = BlockColorResolver.isTinted(state);
+            this.air = state.isAir();
+            this.opaque = state.isOpaque();
+            this.fullCube = isFullCube(state);
 
-        return tag;
+            FluidState fluid = state.getFluidState();
+            this.fluid = (!fluid.isEmpty() && context.getSettings().shouldExportFluids()) ? fluid : null;
+        }
+
+        String getID(int faces, ExportContext context) {
+            String id = ids[faces];
+            if (id == null) {
+                id = context.getID(new ModelEntry(model, unpackFaces(faces), transparent, state), modelName);
+                ids[faces] = id;
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Lazily computes the state info of each entry in a section's palette.
+     */
+    private static class StateCache {
+        // Sections with more than this many states use the global palette,
+        // which is too big to mirror in an array.
+        static final int MAX_ARRAY_SIZE = 256;
+
+        final WorldSnapshot.Section section;
+        final ExportContext context;
+        final StateInfo[] infos;
+        final Int2ObjectMap<StateInfo> globalInfos;
+
+        StateCache(WorldSnapshot.Section section, ExportContext context) {
+            this.section = section;
+            this.context = context;
+            if (section.getPaletteSize() <= MAX_ARRAY_SIZE) {
+                infos = new StateInfo[section.getPaletteSize()];
+                globalInfos = null;
+            } else {
+                infos = null;
+                globalInfos = new Int2ObjectOpenHashMap<>();
+            }
+        }
+
+        StateInfo get(int paletteIndex) {
+            StateInfo info;
+            if (infos != null) {
+                info = infos[paletteIndex];
+                if (info == null) {
+                    info = new StateInfo(section.getPaletteEntry(paletteIndex), context);
+                    infos[paletteIndex] = info;
+                }
+            } else {
+                info = globalInfos.get(paletteIndex);
+                if (info == null) {
+                    info = new StateInfo(section.getPaletteEntry(paletteIndex), context);
+                    globalInfos.put(paletteIndex, info);
+                }
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Write the block and color data of a section into its NBT compound. If
+     * either palette only has one entry, the matching per-voxel array is
+     * omitted, as every voxel is known to use that entry.
+     * 
+     * @param tag          Section compound to write to.
+     * @param palette      Model palette of the section, as indices into the
+     *                     {@link ModelTable}.
+     * @param blocks       Palette index of each block in the section. May be
+     *                     <code>null</code> if the palette has one entry.
+     * @param colorPalette Color palette of the section.
+     * @param colors       Color palette byte offset of each block in the section.
+     *                     May be <code>null</code> if the color palette has one
+     *                     entry.
+     * @param packBlocks   Write the block data as bit-packed longs in
+     *                     <code>packedBlocks</code> rather than as
+     *                     <code>blocks</code>. See {@link BlockPacking}.
+     */
+    static void writePalettedData(NbtCompound tag, int[] palette, @Nullable int[] blocks,
+            ColorPalette colorPalette, @Nullable byte[] colors, boolean packBlocks) {
+        tag.put("palette", new NbtIntArray(palette));
+        if (palette.length > 1) {
+            if (packBlocks) {
+                tag.put("packedBlocks", new NbtLongArray(BlockPacking.pack(blocks, BlockPacking.bitsFor(palette.length))));
+            } else {
+                tag.put("blocks", new NbtIntArray(blocks));
+            }
+        }
+
+        tag.put("colorPalette", new NbtByteArray(colorPalette.toByteArray()));
+        if (colorPalette.size() > 1) {
+            tag.put("colors", new NbtByteArray(colors));
+        }
     }
 }
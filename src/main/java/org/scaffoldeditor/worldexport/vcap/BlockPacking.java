@@ -0,0 +1,94 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+/**
+ * <p>
+ * Packs palette indices into longs using the smallest number of bits that can
+ * address the palette, in the same way as Minecraft's own
+ * <code>PackedIntegerArray</code>. Entries never span two longs; any leftover
+ * high bits in a long are left as zero.
+ * </p>
+ * <p>
+ * This is the reference implementation of the <code>packedBlocks</code> tag
+ * described in the Vcap spec.
+ * </p>
+ */
+public final class BlockPacking {
+    private BlockPacking() {}
+
+    /**
+     * Get the number of bits needed to store indices into a palette.
+     * @param paletteSize Number of palette entries.
+     * @return Bits per entry. Always at least <code>1</code>.
+     */
+    public static int bitsFor(int paletteSize) {
+        if (paletteSize < 1) {
+            throw new IllegalArgumentException("Palette size must be at least 1.");
+        }
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    /**
+     * Get the number of longs needed to pack a set of values.
+     * @param size Number of values.
+     * @param bits Bits per value.
+     * @return Packed length.
+     */
+    public static int packedLength(int size, int bits) {
+        int perLong = 64 / bits;
+        return (size + perLong - 1) / perLong;
+    }
+
+    /**
+     * Pack a set of values.
+     * @param values Values to pack. Must all fit in <code>bits</code> bits.
+     * @param bits   Bits per value, between <code>1</code> and <code>32</code>.
+     * @return Packed values.
+     * @throws IllegalArgumentException If a value doesn't fit.
+     */
+    public static long[] pack(int[] values, int bits) {
+        checkBits(bits);
+        int perLong = 64 / bits;
+        long mask = (1L << bits) - 1;
+        long[] data = new long[packedLength(values.length, bits)];
+
+        for (int i = 0; i < values.length; i++) {
+            long value = values[i] & 0xFFFFFFFFL;
+            if ((value & ~mask) != 0) {
+                throw new IllegalArgumentException("Value " + values[i] + " at index " + i
+                        + " doesn't fit in " + bits + " bits.");
+            }
+            data[i / perLong] |= value << ((i % perLong) * bits);
+        }
+        return data;
+    }
+
+    /**
+     * Unpack a set of values.
+     * @param data Packed values.
+     * @param bits Bits per value, between <code>1</code> and <code>32</code>.
+     * @param size Number of values to unpack.
+     * @return Unpacked values.
+     * @throws IllegalArgumentException If <code>data</code> is too short.
+     */
+    public static int[] unpack(long[] data, int bits, int size) {
+        checkBits(bits);
+        if (data.length < packedLength(size, bits)) {
+            throw new IllegalArgumentException("Expected " + packedLength(size, bits)
+                    + " longs of packed data but found " + data.length + ".");
+        }
+        int perLong = 64 / bits;
+        long mask = (1L << bits) - 1;
+        int[] values = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            values[i] = (int) (data[i / perLong] >>> ((i % perLong) * bits) & mask);
+        }
+        return values;
+    }
+
+    private static void checkBits(int bits) {
+        if (bits < 1 || bits > 32) {
+            throw new IllegalArgumentException("Bits per value must be between 1 and 32.");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+
+/**
+ * <p>
+ * Collects the positions of block updates between frames. Positions are
+ * stored packed into longs (see <code>BlockPos.asLong</code>), and an update
+ * to a position that's already buffered is merged into it, so a block that
+ * changes many times within a frame is only captured once.
+ * </p>
+ * <p>
+ * Updates may be added from any thread. They're drained on the thread that
+ * captures frames, oldest first. If more updates arrive within one frame than
+ * a single drain may take, the rest stay buffered and are drained with the
+ * next frame, which spreads a burst of updates over several frames rather than
+ * stalling one.
+ * </p>
+ */
+public class BlockUpdateBuffer {
+    private final LongLinkedOpenHashSet positions = new LongLinkedOpenHashSet();
+    private long coalesced;
+
+    /**
+     * Add a block update.
+     * @param pos Packed block position.
+     * @return <code>false</code> if the position was already buffered.
+     */
+    public synchronized boolean add(long pos) {
+        if (positions.add(pos)) return true;
+        coalesced++;
+        return false;
+    }
+
+    /**
+     * Remove buffered updates, oldest first.
+     * @param limit The maximum number of updates to remove. <code>0</code> for
+     *              no limit.
+     * @return The packed positions that were removed.
+     */
+    public synchronized long[] drain(int limit) {
+        int count = limit > 0 ? Math.min(limit, positions.size()) : positions.size();
+        long[] drained = new long[count];
+        for (int i = 0; i < count; i++) {
+            drained[i] = positions.removeFirstLong();
+        }
+        return drained;
+    }
+
+    /**
+     * Get the number of buffered updates.
+     * @return Update count.
+     */
+    public synchronized int size() {
+        return positions.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    /**
+     * Get the number of updates that were merged into an update that was
+     * already buffered.
+     * @return Merged update count.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * Discard every buffered update.
+     */
+    public synchronized void clear() {
+        positions.clear();
+    }
+}
@@ -0,0 +1,132 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.Arrays;
+
+/**
+ * Builds the color palette used by a single section or frame. Colors are
+ * stored as packed 24-bit RGB ints and looked up through an open-addressed
+ * hash table, so no boxing or linear scanning takes place.
+ * <p>
+ * Not thread-safe. Each section should build its own palette.
+ */
+public class ColorPalette {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int[] entries;
+    private int size;
+
+    /**
+     * Create a palette with a small default capacity.
+     */
+    public ColorPalette() {
+        this(8);
+    }
+
+    /**
+     * Create a palette.
+     * @param expectedSize The number of colors the palette is expected to hold.
+     *                     The palette will still grow past this if needed.
+     */
+    public ColorPalette(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        entries = new int[Math.max(expectedSize, 4)];
+    }
+
+    /**
+     * Get the index of a color, adding it to the end of the palette if it isn't
+     * present.
+     * @param color Color in <code>0xRRGGBB</code> format. Any alpha bits are ignored.
+     * @return The color's index in the palette. Note that this is the index of
+     *         the color entry, not the byte offset into {@link #toByteArray()}.
+     */
+    public int add(int color) {
+        color &= 0xFFFFFF;
+        int mask = keys.length - 1;
+        int slot = mix(color) & mask;
+        int key;
+        while ((key = keys[slot]) != EMPTY) {
+            if (key == color) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        int index = size;
+        if (index == entries.length) {
+            entries = Arrays.copyOf(entries, index * 2);
+        }
+        entries[index] = color;
+        keys[slot] = color;
+        values[slot] = index;
+        size++;
+
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return index;
+    }
+
+    /**
+     * Get the color at a given palette index.
+     * @param index Palette index.
+     * @return Color in <code>0xRRGGBB</code> format.
+     * @throws IndexOutOfBoundsException If the index is outside the palette.
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return entries[index];
+    }
+
+    /**
+     * Get the number of colors in this palette.
+     * @return Palette size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Write this palette as a sequence of red, green and blue bytes, as used by
+     * the <code>colorPalette</code> tag.
+     * @return A byte array three times the length of the palette.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size * 3];
+        for (int i = 0; i < size; i++) {
+            int color = entries[i];
+            bytes[i * 3] = (byte) (color >> 16 & 255);
+            bytes[i * 3 + 1] = (byte) (color >> 8 & 255);
+            bytes[i * 3 + 2] = (byte) (color & 255);
+        }
+        return bytes;
+    }
+
+    private void rehash(int capacity) {
+        int[] newKeys = new int[capacity];
+        Arrays.fill(newKeys, EMPTY);
+        int[] newValues = new int[capacity];
+        int mask = capacity - 1;
+
+        for (int i = 0; i < size; i++) {
+            int color = entries[i];
+            int slot = mix(color) & mask;
+            while (newKeys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = color;
+            newValues[slot] = i;
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,142 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.jetbrains.annotations.Nullable;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+
+/**
+ * The block data of an IFrame section, decoded out of NBT so it can be
+ * queried without traversing tags.
+ */
+public class DecodedSection {
+    public final int x;
+    public final int y;
+    public final int z;
+
+    /**
+     * The section's palette, as indices into the {@link ModelTable}.
+     */
+    public final int[] palette;
+
+    /**
+     * Palette index of each voxel, in YZX order. <code>null</code> if the
+     * palette only has one entry.
+     */
+    @Nullable
+    public final int[] blocks;
+
+    /**
+     * Packed RGB colors of the section's color palette.
+     */
+    public final int[] colorPalette;
+
+    /**
+     * Color palette index of each voxel, in YZX order. <code>null</code> if
+     * the color palette only has one entry.
+     */
+    @Nullable
+    public final int[] colors;
+
+    public DecodedSection(int x, int y, int z, int[] palette, @Nullable int[] blocks,
+            int[] colorPalette, @Nullable int[] colors) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.palette = palette;
+        this.blocks = blocks;
+        this.colorPalette = colorPalette;
+        this.colors = colors;
+    }
+
+    /**
+     * Decode a section from its NBT form.
+     * @param tag Section compound, as found in an IFrame's <code>sections</code> list.
+     * @return The decoded section.
+     */
+    public static DecodedSection decode(NbtCompound tag) {
+        int[] palette = tag.getIntArray("palette");
+
+        int[] blocks = null;
+        if (tag.contains("blocks", NbtElement.INT_ARRAY_TYPE)) {
+            blocks = tag.getIntArray("blocks");
+        } else if (tag.contains("packedBlocks", NbtElement.LONG_ARRAY_TYPE)) {
+            blocks = BlockPacking.unpack(tag.getLongArray("packedBlocks"),
+                    BlockPacking.bitsFor(palette.length), 16 * 16 * 16);
+        }
+
+        byte[] colorBytes = tag.getByteArray("colorPalette");
+        int[] colorPalette = new int[Math.max(colorBytes.length / 3, 1)];
+        if (colorBytes.length == 0) {
+            colorPalette[0] = 0xFFFFFF;
+        }
+        for (int i = 0; i < colorBytes.length / 3; i++) {
+            colorPalette[i] = (colorBytes[i * 3] & 255) << 16
+                    | (colorBytes[i * 3 + 1] & 255) << 8
+                    | (colorBytes[i * 3 + 2] & 255);
+        }
+
+        int[] colors = null;
+        if (tag.contains("colors", NbtElement.BYTE_ARRAY_TYPE)) {
+            // Stored as byte offsets into the color palette.
+            byte[] offsets = tag.getByteArray("colors");
+            colors = new int[offsets.length];
+            for (int i = 0; i < offsets.length; i++) {
+                colors[i] = (offsets[i] & 255) / 3;
+            }
+        }
+
+        return new DecodedSection(tag.getInt("x"), tag.getInt("y"), tag.getInt("z"), palette, blocks,
+                colorPalette, colors);
+    }
+
+    /**
+     * Create a section with the same contents as this one at a different
+     * position. The block and color data are shared, not copied.
+     * @param x New section X.
+     * @param y New section Y.
+     * @param z New section Z.
+     * @return The moved section.
+     */
+    public DecodedSection moveTo(int x, int y, int z) {
+        return new DecodedSection(x, y, z, palette, blocks, colorPalette, colors);
+    }
+
+    /**
+     * Get the index of a voxel within a section.
+     * @param x Section-relative X.
+     * @param y Section-relative Y.
+     * @param z Section-relative Z.
+     * @return Index into the section's block array.
+     */
+    public static int indexOf(int x, int y, int z) {
+        return (y * 16 + z) * 16 + x;
+    }
+
+    /**
+     * Get the palette index of a voxel.
+     * @param index Index of the voxel, as returned by {@link #indexOf}.
+     * @return Palette index.
+     */
+    public int paletteIndexAt(int index) {
+        return blocks != null ? blocks[index] : 0;
+    }
+
+    /**
+     * Get the model of a voxel.
+     * @param index Index of the voxel, as returned by {@link #indexOf}.
+     * @return The model's index in the {@link ModelTable}.
+     */
+    public int modelAt(int index) {
+        return palette[paletteIndexAt(index)];
+    }
+
+    /**
+     * Get the packed RGB color of a voxel.
+     * @param index Index of the voxel, as returned by {@link #indexOf}.
+     * @return Packed RGB color.
+     */
+    public int colorAt(int index) {
+        return colorPalette[colors != null ? colors[index] : 0];
+    }
+}
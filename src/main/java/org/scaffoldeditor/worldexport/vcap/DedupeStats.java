@@ -0,0 +1,69 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often a deduplication cache was hit and roughly how much it saved.
+ * Safe to update from multiple threads at once.
+ */
+public class DedupeStats {
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Record a lookup that missed the cache.
+     */
+    public void miss() {
+        total.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that hit the cache.
+     * @param bytes Approximate number of bytes that didn't need to be written.
+     */
+    public void hit(long bytes) {
+        total.incrementAndGet();
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(bytes);
+    }
+
+    /**
+     * Get the number of lookups.
+     * @return Lookup count.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Get the number of lookups that hit the cache.
+     * @return Hit count.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the fraction of lookups that hit the cache.
+     * @return Hit rate, from <code>0</code> to <code>1</code>.
+     */
+    public double getHitRate() {
+        long total = getTotal();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    /**
+     * Get the approximate number of bytes that didn't need to be written.
+     * @return Bytes saved.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d hits (%.1f%%), ~%d KB saved",
+                getHits(), getTotal(), getHitRate() * 100, getBytesSaved() / 1024);
+    }
+}
@@ -4,15 +4,14 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jetbrains.annotations.Nullable;
 
 import de.javagl.obj.Obj;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.render.model.BakedModel;
-import net.minecraft.util.Identifier;
 import net.minecraft.util.registry.Registry;
 
 /**
@@ -36,6 +35,9 @@ public class ExportContext {
         @Nullable
         public final BlockState blockState;
 
+        // Model entries are used as map keys a lot, so the hash is only computed once.
+        private final int hash;
+
         /**
          * Create a model entry.
          * @param model The baked model to use.
@@ -48,21 +50,26 @@ public class ExportContext {
             this.faces = faces;
             this.transparent = transparent;
             this.blockState = blockState;
+            this.hash = Objects.hash(model, Arrays.hashCode(faces), transparent, blockState);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(model, Arrays.hashCode(faces), hashBlock(blockState));
+            return hash;
         }
 
         @Override
         public boolean equals(Object obj) {
-            return hashCode() == obj.hashCode();
-        }
-
-        private static int hashBlock(BlockState state) {
-            Identifier id = Registry.BLOCK.getId(state.getBlock());
-            return Objects.hash(id, state.getEntries());
+            if (this == obj) return true;
+            if (!(obj instanceof ModelEntry)) return false;
+            ModelEntry other = (ModelEntry) obj;
+
+            // Baked models and block states are singletons, so identity is enough.
+            return hash == other.hash
+                    && model == other.model
+                    && transparent == other.transparent
+                    && blockState == other.blockState
+                    && Arrays.equals(faces, other.faces);
         }
     
     }
@@ -70,12 +77,42 @@ public class ExportContext {
     /**
      * The model entries in the cache and their IDs.
      */
-    public final Map<ModelEntry, String> models = new HashMap<>();
+    public final ModelRegistry models = new ModelRegistry();
 
     /**
      * The fluid meshes in the export context.
      */
-    public final Map<String, Obj> fluidMeshes = new HashMap<>();
+    public final Map<String, Obj> fluidMeshes = new ConcurrentHashMap<>();
+
+    /**
+     * The IDs of the fluid meshes in the export context, by content.
+     */
+    public final Map<FluidHandler.MeshKey, String> fluidMeshIndex = new ConcurrentHashMap<>();
+
+    /**
+     * The number to give the next fluid mesh ID.
+     */
+    public final AtomicInteger fluidMeshCounter = new AtomicInteger();
+
+    /**
+     * The file-level model table that sections and frames refer to.
+     */
+    public final ModelTable modelTable = new ModelTable();
+
+    /**
+     * How many IFrame sections were replaced with references to identical ones.
+     */
+    public final DedupeStats sectionStats = new DedupeStats();
+
+    /**
+     * How many block meshes were identical to one that was already written.
+     */
+    public final DedupeStats meshStats = new DedupeStats();
+
+    /**
+     * How many fluid meshes were identical to one that was already added.
+     */
+    public final DedupeStats fluidStats = new DedupeStats();
 
     private VcapSettings settings = new VcapSettings();
 
@@ -89,21 +126,13 @@ public class ExportContext {
 
     /**
      * Generate the ID of a model entry. Returns the current ID if it already exists.
+     * Safe to call from multiple threads at once.
      * @param entry Entry to generate the ID for.
      * @param name Base name of model.
      * @return ID.
      */
-    public synchronized String getID(ModelEntry entry, String name) {
-        String id = models.get(entry);
-        if (id == null) {
-            if (name == null) name = String.valueOf(entry.model.hashCode());
-            id = name+Arrays.toString(entry.faces);
-            while (models.containsValue(id)) {
-                id = iterateName(id);
-            }
-            models.put(entry, id);
-        }
-        return id;
+    public String getID(ModelEntry entry, String name) {
+        return models.getID(entry, name);
     }
 
     public String getID(ModelEntry entry) {
@@ -118,9 +147,9 @@ public class ExportContext {
      * @see ExportContext#getIDMapping()
      */
     public void getIDMapping(Map<String, String> map) {
-        for (ModelEntry entry : models.keySet()) {
-            map.put(models.get(entry), Registry.BLOCK.getId(entry.blockState.getBlock()).toString());
-        }
+        models.asMap().forEach((entry, id) -> {
+            map.put(id, Registry.BLOCK.getId(entry.blockState.getBlock()).toString());
+        });
     }
 
     /**
@@ -136,16 +165,4 @@ public class ExportContext {
         return map;
     }
 
-    private static Pattern lastIntPattern = Pattern.compile("[^0-9]+([0-9]+)$");
-
-    private String iterateName(String name) {
-        Matcher matcher = lastIntPattern.matcher(name);
-        if (matcher.find()) {
-            String intStr = matcher.group(1);
-            return name.replace(intStr, String.valueOf(Integer.parseInt(intStr) + 1));
-        } else {
-            return name+'1';
-        }
-    }
-
 }
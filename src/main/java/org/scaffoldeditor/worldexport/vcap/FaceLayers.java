@@ -0,0 +1,110 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Assigns the quads of a mesh to face layers. A quad goes on the first layer
+ * that doesn't already have an identical quad, so overlays like the sides of
+ * grass blocks end up on their own layer and can be given their own material
+ * instead of z-fighting the quad underneath.
+ * </p>
+ * <p>
+ * Quads are compared by their vertex positions, in order, quantized to
+ * 1/1024 of a block so that rounding error in rotated models doesn't keep two
+ * quads apart. Looking up a quad that has been seen before doesn't allocate.
+ * </p>
+ */
+public class FaceLayers {
+
+    private static final float QUANTIZATION = 1024;
+    private static final int KEY_VERTICES = 4;
+
+    /**
+     * The positions of a quad, quantized to 16 bits per coordinate and packed
+     * into three longs. Also counts how many times the quad has been added.
+     */
+    private static final class QuadKey {
+        long a;
+        long b;
+        long c;
+        int hash;
+        int count;
+
+        void set(int[] vertexData) {
+            a = b = c = 0;
+            int vertices = Math.min(QuadDecoder.getVertexCount(vertexData), KEY_VERTICES);
+            for (int i = 0; i < vertices; i++) {
+                put(i * 3, QuadDecoder.getX(vertexData, i));
+                put(i * 3 + 1, QuadDecoder.getY(vertexData, i));
+                put(i * 3 + 2, QuadDecoder.getZ(vertexData, i));
+            }
+            hash = Long.hashCode(a) * 961 + Long.hashCode(b) * 31 + Long.hashCode(c);
+        }
+
+        private void put(int coord, float value) {
+            long bits = Math.round(value * QUANTIZATION) & 0xFFFFL;
+            int shift = (coord % 4) * 16;
+            switch (coord / 4) {
+                case 0: a |= bits << shift; break;
+                case 1: b |= bits << shift; break;
+                default: c |= bits << shift; break;
+            }
+        }
+
+        QuadKey copy() {
+            QuadKey copy = new QuadKey();
+            copy.a = a;
+            copy.b = b;
+            copy.c = c;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof QuadKey)) return false;
+            QuadKey other = (QuadKey) obj;
+            return a == other.a && b == other.b && c == other.c;
+        }
+    }
+
+    private final Map<QuadKey, QuadKey> quads = new HashMap<>();
+    private final QuadKey probe = new QuadKey();
+    private int numLayers;
+
+    /**
+     * Add a quad.
+     * @param vertexData The quad's vertex data. See {@link QuadDecoder}.
+     * @return The index of the layer the quad belongs on.
+     */
+    public int add(int[] vertexData) {
+        probe.set(vertexData);
+        QuadKey existing = quads.get(probe);
+        if (existing == null) {
+            existing = probe.copy();
+            quads.put(existing, existing);
+        }
+
+        int layer = existing.count++;
+        if (layer >= numLayers) {
+            numLayers = layer + 1;
+        }
+        return layer;
+    }
+
+    /**
+     * Get the number of layers that have at least one quad.
+     * @return Layer count.
+     */
+    public int getNumLayers() {
+        return numLayers;
+    }
+}
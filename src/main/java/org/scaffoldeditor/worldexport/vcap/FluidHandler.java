@@ -1,9 +1,12 @@
 package org.scaffoldeditor.worldexport.vcap;
 
-import java.util.Map;
+import java.util.Arrays;
 
+import de.javagl.obj.FloatTuple;
 import de.javagl.obj.Obj;
+import de.javagl.obj.ObjFace;
 import de.javagl.obj.Objs;
+import de.javagl.obj.ReadableObj;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.util.math.BlockPos;
@@ -37,26 +40,111 @@ public final class FluidHandler {
         return addFluidMeshToContext(context, mesh);
     }
 
+    /**
+     * The content of a fluid mesh, used to find identical meshes. Positions
+     * and normals are quantized to 1/1024 and texture coordinates to 1/65536,
+     * so meshes that only differ by floating point error are the same.
+     */
+    public static final class MeshKey {
+        private static final float POSITION_QUANTIZATION = 1024;
+        private static final float TEXTURE_QUANTIZATION = 65536;
+
+        private final int[] data;
+        private final int hash;
+
+        private MeshKey(int[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        /**
+         * Compute the key of a mesh.
+         * @param mesh Mesh to use. Faces must have normals and texture
+         *             coordinates, as ones from {@link ObjVertexConsumer} do.
+         * @return The mesh's key.
+         */
+        public static MeshKey of(ReadableObj mesh) {
+            int size = 0;
+            for (int f = 0; f < mesh.getNumFaces(); f++) {
+                size += 1 + mesh.getFace(f).getNumVertices() * 8;
+            }
+
+            int[] data = new int[size];
+            int i = 0;
+            for (int f = 0; f < mesh.getNumFaces(); f++) {
+                ObjFace face = mesh.getFace(f);
+                data[i++] = face.getNumVertices();
+                for (int v = 0; v < face.getNumVertices(); v++) {
+                    FloatTuple vertex = mesh.getVertex(face.getVertexIndex(v));
+                    FloatTuple normal = mesh.getNormal(face.getNormalIndex(v));
+                    FloatTuple tex = mesh.getTexCoord(face.getTexCoordIndex(v));
+
+                    data[i++] = Math.round(vertex.getX() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(vertex.getY() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(vertex.getZ() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(normal.getX() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(normal.getY() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(normal.getZ() * POSITION_QUANTIZATION);
+                    data[i++] = Math.round(tex.getX() * TEXTURE_QUANTIZATION);
+                    data[i++] = Math.round(tex.getY() * TEXTURE_QUANTIZATION);
+                }
+            }
+            return new MeshKey(data);
+        }
+
+        /**
+         * Get the approximate number of bytes the mesh would take to write.
+         * @return Size estimate.
+         */
+        public long byteSize() {
+            return data.length * 4L;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MeshKey)) return false;
+            MeshKey other = (MeshKey) obj;
+            return hash == other.hash && Arrays.equals(data, other.data);
+        }
+    }
+
+    /**
+     * Add a fluid mesh to the export context. If an identical mesh has already
+     * been added, its ID is returned and the new mesh is discarded. Safe to
+     * call from multiple threads at once.
+     *
+     * @param context The export context.
+     * @param mesh    Mesh to add.
+     * @return The mesh ID.
+     */
     public static String addFluidMeshToContext(ExportContext context, Obj mesh) {
         if (mesh.getNumVertices() == 0) {
             return MeshWriter.EMPTY_MESH;
         }
-        Map<String, Obj> fluidMeshes = context.fluidMeshes;
 
-        // for (String id : fluidMeshes.keySet()) {
-        //     if (MeshWriter.objEquals(mesh, fluidMeshes.get(id))) return id;
-        // }
-
-        String name = genFluidMeshName(context);
-        fluidMeshes.put(name, mesh);
-        return name;
-    }
+        MeshKey key = MeshKey.of(mesh);
+        String id = context.fluidMeshIndex.get(key);
+        if (id != null) {
+            context.fluidStats.hit(key.byteSize());
+            return id;
+        }
 
-    private static String genFluidMeshName(ExportContext context) {
-        int index = 0;
-        while (context.fluidMeshes.keySet().contains("fluid."+index)) {
-            index++;
+        String name = "fluid." + context.fluidMeshCounter.getAndIncrement();
+        id = context.fluidMeshIndex.putIfAbsent(key, name);
+        if (id != null) {
+            // Another thread added the same mesh first. Its name is left unused.
+            context.fluidStats.hit(key.byteSize());
+            return id;
         }
-        return "fluid."+index;
+
+        context.fluidMeshes.put(name, mesh);
+        context.fluidStats.miss();
+        return name;
     }
 }
@@ -1,23 +1,24 @@
 package org.scaffoldeditor.worldexport.vcap;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-import net.minecraft.block.BlockState;
-import net.minecraft.client.MinecraftClient;
-import net.minecraft.nbt.NbtByte;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.NbtByteArray;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
-import net.minecraft.nbt.NbtInt;
+import net.minecraft.nbt.NbtIntArray;
 import net.minecraft.nbt.NbtList;
-import net.minecraft.nbt.NbtString;
+import net.minecraft.nbt.NbtLongArray;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Direction;
-import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.WorldAccess;
 
 /**
@@ -56,12 +57,12 @@ public interface Frame {
     public static class PFrame implements Frame {
 
         private Map<BlockPos, String> data = new HashMap<>();
-        private Map<BlockPos, BlockState> states = new HashMap<>();
-        private static MinecraftClient client = MinecraftClient.getInstance();
+        private Map<BlockPos, Integer> colors = new HashMap<>();
 
         public final Frame previous;
         public final double timestamp;
         public final WorldAccess world;
+        private final ModelTable models;
 
         private static boolean isInBBox(BlockPos pos, ChunkPos minChunk, ChunkPos maxChunk) {
             return (minChunk.getStartX() <= pos.getX()) && (pos.getX() < maxChunk.getStartX())
@@ -90,44 +91,82 @@ public interface Frame {
                 double timestamp,
                 Frame previous,
                 ExportContext context) {
+            return capture(world, blocks, timestamp, previous, context, previous::modelAt);
+        }
+
+        /**
+         * Capture a predicted frame, comparing adjacent blocks against a custom
+         * model lookup rather than the previous frame.
+         * 
+         * @param world     World to capture.
+         * @param blocks    A set of blocks to include data for in the frame.
+         *                  All ajacent blocks will be queried, and if they are found to
+         *                  have changed, they are also included in the frame. Note that
+         *                  only blocks within the export context's bounding box are
+         *                  captured. See
+         *                  {@link VcapSettings#setBBox(ChunkPos, ChunkPos)} for more
+         *                  info.
+         * @param timestamp Time stamp of the frame, in seconds since the beginning
+         *                  of the animation.
+         * @param previous  The previous frame in the file. May be <code>null</code>
+         *                  if the preceding IFrame is still being captured.
+         * @param context   The export context.
+         * @param lookup    Returns the model of a block as of the previous frame,
+         *                  or throws an {@link IndexOutOfBoundsException} if it's
+         *                  not in the Vcap. See {@link WorldState#modelAt}.
+         * @return The captured frame.
+         */
+        public static PFrame capture(WorldAccess world,
+                Set<BlockPos> blocks,
+                double timestamp,
+                Frame previous,
+                ExportContext context,
+                Function<BlockPos, String> lookup) {
 
             Map<BlockPos, String> updates = new HashMap<>();
-            Map<BlockPos, BlockState> states = new HashMap<>();
+            Map<BlockPos, Integer> colors = new HashMap<>();
             ChunkPos minChunk = context.getSettings().getMinChunk();
             ChunkPos maxChunk = context.getSettings().getMaxChunk();
 
-            int lowerDepth = context.getSettings().getLowerDepth() * 16; // In blocks, not chunks.
+            int lowerDepth = context.getSettings().getLowerDepth(); // In section coordinates.
 
             for (BlockPos pos : blocks) {
-                if (pos.getX() < lowerDepth || !isInBBox(pos, minChunk, maxChunk)) continue;
+                if ((pos.getY() >> 4) < lowerDepth || !isInBBox(pos, minChunk, maxChunk)) continue;
 
                 updates.put(pos, BlockExporter.exportBlock(world, pos, context));
-                states.put(pos, world.getBlockState(pos));
+                colors.put(pos, getColor(world, pos));
                 // Check adjacent blocks.
                 for (Direction dir : Direction.values()) {
                     BlockPos adjacent = pos.offset(dir);
-                    if (pos.getX() < lowerDepth || !isInBBox(pos, minChunk, maxChunk)) continue;
+                    if ((adjacent.getY() >> 4) < lowerDepth || !isInBBox(adjacent, minChunk, maxChunk)) continue;
                     if (updates.containsKey(adjacent)) continue;
 
                     String old;
                     try {
-                        old = previous.modelAt(adjacent);
+                        old = lookup.apply(adjacent);
                     } catch (IndexOutOfBoundsException e) {
                         continue;
                     }
                     String updated = BlockExporter.exportBlock(world, adjacent, context);
                     if (!old.equals(updated)) {
                         updates.put(adjacent, updated);
-                        states.put(adjacent, world.getBlockState(adjacent));
+                        colors.put(adjacent, getColor(world, adjacent));
                     }
                 }
             }
-            return new PFrame(updates, states, world, previous, timestamp);
+            return new PFrame(updates, colors, world, previous, timestamp, context.modelTable);
+        }
+
+        // Sampled at capture time so the color matches the world as it was then.
+        private static int getColor(WorldAccess world, BlockPos pos) {
+            return BlockColorResolver.getColor(world.getBlockState(pos), world, pos);
         }
 
-        public PFrame(Map<BlockPos, String> updated, Map<BlockPos, BlockState> states, WorldAccess world, Frame previous, double timestamp) {
+        public PFrame(Map<BlockPos, String> updated, Map<BlockPos, Integer> colors, WorldAccess world, Frame previous,
+                double timestamp, ModelTable models) {
+            this.models = models;
             this.data = updated;
-            this.states = states;
+            this.colors = colors;
             this.timestamp = timestamp;
             this.previous = previous;
             this.world = world;
@@ -149,57 +188,71 @@ public interface Frame {
             NbtCompound frame = new NbtCompound();
             frame.putByte("type", PREDICTED_TYPE);
             frame.putDouble("time", timestamp);
-            
-            NbtList updates = new NbtList();
-            List<String> palette = new ArrayList<>();
-            for (BlockPos pos : data.keySet()) {
-                String id = data.get(pos);
-
-                NbtCompound entry = new NbtCompound();
-                int index = palette.indexOf(id);
-                if (index < 0) {
-                    index = palette.size();
-                    palette.add(id);
-                }
-
-                entry.putInt("state", index);
-                NbtList posTag = new NbtList();
-                List.of(pos.getX(), pos.getY(), pos.getZ()).forEach(val -> posTag.add(NbtInt.of(val)));
-                entry.put("pos", posTag);
 
-                BlockState state = states.get(pos);
-                if (state == null) {
-                    throw new IllegalStateException("Vcap: Block at "+pos+" is missing a blockstate entry!");
+            int size = data.size();
+            long[] positions = new long[size];
+            int[] indices = new int[size];
+            byte[] colorData = new byte[size * 3];
+
+            int i = 0;
+            for (Map.Entry<BlockPos, String> entry : data.entrySet()) {
+                BlockPos pos = entry.getKey();
+                Integer color = colors.get(pos);
+                if (color == null) {
+                    throw new IllegalStateException("Vcap: Block at "+pos+" is missing a color entry!");
                 }
 
-                int color = client.getBlockColors().getColor(state, world, pos, 0);
-
-                byte r = (byte)(color >> 16 & 255);
-                byte g = (byte)(color >> 8 & 255);
-                byte b = (byte)(color & 255);
-
-                NbtList colorTag = new NbtList();
-                List.of(r, g, b).forEach(val -> colorTag.add(NbtByte.of(val)));
-                entry.put("color", colorTag);
-
-                updates.add(entry);
+                positions[i] = pos.asLong();
+                indices[i] = models.indexOf(entry.getValue());
+                colorData[i * 3] = (byte) (color >> 16 & 255);
+                colorData[i * 3 + 1] = (byte) (color >> 8 & 255);
+                colorData[i * 3 + 2] = (byte) (color & 255);
+                i++;
             }
 
-            frame.put("blocks", updates);
-            NbtList paletteTag = new NbtList();
-            palette.forEach(val -> paletteTag.add(NbtString.of(val)));
-            frame.put("palette", paletteTag);
+            frame.put("positions", new NbtLongArray(positions));
+            frame.put("states", new NbtIntArray(indices));
+            frame.put("colors", new NbtByteArray(colorData));
 
             return frame;
         }
 
+        /**
+         * Get the blocks that were updated in this frame.
+         * @return An unmodifiable map of block positions and their new model IDs.
+         */
+        public Map<BlockPos, String> getUpdates() {
+            return Collections.unmodifiableMap(data);
+        }
+
+        /**
+         * Get the color of a block that was updated in this frame.
+         * @param pos Block position.
+         * @return Packed RGB color, as captured when the frame was recorded.
+         * @throws IllegalArgumentException If the block wasn't updated in this frame.
+         */
+        public int getColor(BlockPos pos) {
+            Integer color = colors.get(pos);
+            if (color == null) {
+                throw new IllegalArgumentException("Block at "+pos+" was not updated in this frame.");
+            }
+            return color;
+        }
+
         @Override
         public String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
-            if (data.containsKey(pos)) {
-                return data.get(pos);
-            } else {
-                return previous.modelAt(pos);
+            // Walk back iteratively; long captures can have very long frame chains.
+            Frame frame = this;
+            while (frame instanceof PFrame) {
+                PFrame pFrame = (PFrame) frame;
+                String id = pFrame.data.get(pos);
+                if (id != null) return id;
+                frame = pFrame.previous;
             }
+            if (frame == null) {
+                throw new IndexOutOfBoundsException("Block pos: "+pos+" has no frame to read from.");
+            }
+            return frame.modelAt(pos);
         }
         
     }
@@ -207,7 +260,8 @@ public interface Frame {
     public static class IFrame implements Frame {
 
         private NbtCompound data;
-        private Map<Vec3i, NbtCompound> sectionCache = new HashMap<>();
+        private final ModelTable models;
+        private Long2ObjectMap<DecodedSection> sectionIndex;
 
         /**
          * <p>
@@ -227,20 +281,36 @@ public interface Frame {
          * @return Captured frame.
          */
         public static IFrame capture(WorldAccess world, ChunkPos minChunk, ChunkPos maxChunk, ExportContext context, double time) {
+            return capture(WorldSnapshot.capture(world, minChunk, maxChunk, context.getSettings()), context, time);
+        }
+
+        /**
+         * Capture an intracoded frame from a world snapshot. Only reads from
+         * the snapshot, so this may be called from any thread.
+         * 
+         * @param snapshot Snapshot to capture.
+         * @param context  The export context.
+         * @param time     Time stamp of the frame, in seconds since the beginning
+         *                 of the animation.
+         * @return Captured frame.
+         */
+        public static IFrame capture(WorldSnapshot snapshot, ExportContext context, double time) {
             NbtCompound frame = new NbtCompound();
-            frame.put("sections", BlockExporter.exportStill(world, minChunk, maxChunk, context));
+            frame.put("sections", BlockExporter.exportStill(snapshot, context));
             frame.putByte("type", INTRACODED_TYPE);
             frame.putDouble("time", time);
 
-            return new IFrame(frame);
+            return new IFrame(frame, context.modelTable);
         }
 
         /**
          * Create a wrapper around an existing IFrame.
-         * @param data Properly formatted IFrame data.
+         * @param data   Properly formatted IFrame data.
+         * @param models The model table the frame's palettes refer to.
          */
-        public IFrame(NbtCompound data) {
+        public IFrame(NbtCompound data, ModelTable models) {
             this.data = data;
+            this.models = models;
         }
 
         @Override
@@ -260,35 +330,67 @@ public interface Frame {
 
         @Override
         public String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
-            Vec3i sectionCoord = new Vec3i(Math.floor(pos.getX() / 16), Math.floor(pos.getY() / 16),
-                    Math.floor(pos.getZ() / 16));
-            
-            NbtCompound section = sectionCache.get(sectionCoord);
-
-            if (section == null) {
-                for (NbtElement n : data.getList("sections", 10)) {
-                    NbtCompound current = (NbtCompound) n;
-                    if (current.getInt("x") == sectionCoord.getX()
-                            && current.getInt("y") == sectionCoord.getY()
-                            && current.getInt("z") == sectionCoord.getZ()) {
-                        section = current;
-                        sectionCache.put(sectionCoord, section);
-                        break;
-                    }
-                }
-            }
+            DecodedSection section = getSectionIndex().get(
+                    ChunkSectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4));
 
             if (section == null) {
                 throw new IndexOutOfBoundsException("Block pos: "+pos+" is not within the Vcap bounds.");
             }
 
-            Vec3i relativePos = new Vec3i(Math.floorMod(pos.getX(), 16), Math.floorMod(pos.getY(), 16),
-                    Math.floorMod(pos.getZ(), 16));
+            return models.get(section.modelAt(DecodedSection.indexOf(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15)));
+        }
 
-            int index = section.getIntArray("blocks")[(relativePos.getY() * 16 + relativePos.getZ()) * 16
-                    + relativePos.getZ()];
+        /**
+         * Get this frame's sections, decoded and indexed by their packed section
+         * coordinates. The index is built the first time this is called, and
+         * is kept for as long as the frame is.
+         * 
+         * @return Section index, keyed by {@link ChunkSectionPos#asLong(int, int, int)}.
+         */
+        public synchronized Long2ObjectMap<DecodedSection> getSectionIndex() {
+            if (sectionIndex == null) {
+                Long2ObjectMap<DecodedSection> index = new Long2ObjectOpenHashMap<>();
+                decodeSections(section -> index.put(ChunkSectionPos.asLong(section.x, section.y, section.z), section));
+                sectionIndex = index;
+            }
+            return sectionIndex;
+        }
 
-            return section.getList("palette", 8).getString(index);
+        /**
+         * Decode each of this frame's sections in turn. Unlike
+         * {@link #getSectionIndex()}, this doesn't build the index if it isn't
+         * there already, so callers that copy the sections elsewhere don't
+         * leave a second decoded copy of the world behind on the frame.
+         * 
+         * @param consumer Called with each section.
+         */
+        public void forEachSection(Consumer<DecodedSection> consumer) {
+            Long2ObjectMap<DecodedSection> index;
+            synchronized (this) {
+                index = sectionIndex;
+            }
+            if (index != null) {
+                index.values().forEach(consumer);
+            } else {
+                decodeSections(consumer);
+            }
+        }
+
+        private void decodeSections(Consumer<DecodedSection> consumer) {
+            NbtList sections = data.getList("sections", NbtElement.COMPOUND_TYPE);
+            DecodedSection[] decoded = new DecodedSection[sections.size()];
+            for (int i = 0; i < decoded.length; i++) {
+                NbtCompound tag = sections.getCompound(i);
+                DecodedSection section;
+                if (tag.contains("ref", NbtElement.INT_TYPE)) {
+                    // References always point to an earlier section.
+                    section = decoded[tag.getInt("ref")].moveTo(tag.getInt("x"), tag.getInt("y"), tag.getInt("z"));
+                } else {
+                    section = DecodedSection.decode(tag);
+                }
+                decoded[i] = section;
+                consumer.accept(section);
+            }
         }
     }
 }
@@ -0,0 +1,290 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.jetbrains.annotations.Nullable;
+import org.scaffoldeditor.worldexport.vcap.Frame.IFrame;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.WorldAccess;
+
+/**
+ * <p>
+ * Captures an IFrame a few sections at a time, so that a large capture can be
+ * spread across many frames instead of stalling one. Each call to
+ * {@link #step(long)} captures sections until its time budget runs out.
+ * </p>
+ * <p>
+ * The world keeps changing while the capture runs. Block updates must be
+ * reported with {@link #markUpdated(BlockPos)}; any section they touch that
+ * has already been captured is queued to be captured again. The finished frame
+ * therefore matches the world as of the step that completed it, and every
+ * section agrees with its neighbors.
+ * </p>
+ * <p>
+ * Must only be used on the thread that owns the world.
+ * </p>
+ */
+public class IncrementalIFrame {
+    private final WorldAccess world;
+    private final ExportContext context;
+    private final double time;
+
+    /**
+     * Every section that may be written, in output order.
+     */
+    private final long[] order;
+    private final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+    private final LongSet queued = new LongOpenHashSet();
+
+    /**
+     * Sections that have been captured. Empty sections map to
+     * <code>null</code>.
+     */
+    private final Long2ObjectMap<NbtCompound> captured = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * A copied section, with the number of sections around it that still
+     * need to be captured.
+     */
+    private static class CachedSection {
+        final WorldSnapshot.Section section;
+        int uses;
+
+        CachedSection(WorldSnapshot.Section section, int uses) {
+            this.section = section;
+            this.uses = uses;
+        }
+    }
+
+    /**
+     * Copies of the sections that are still needed as neighbors, so each
+     * section is only copied once as the capture sweeps past it. A copy is
+     * dropped once every section around it has been captured, or when a block
+     * in it changes.
+     */
+    private final Long2ObjectMap<CachedSection> copies = new Long2ObjectOpenHashMap<>();
+
+    // Bounds of the sections to capture. Min is inclusive, max is exclusive.
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    /**
+     * Begin capturing an IFrame.
+     * @param world    World to capture.
+     * @param minChunk Bounding box min (inclusive).
+     * @param maxChunk Bounding box max (exclusive).
+     * @param context  The export context.
+     * @param time     Time stamp of the frame, in seconds since the beginning
+     *                 of the animation.
+     */
+    public IncrementalIFrame(WorldAccess world, ChunkPos minChunk, ChunkPos maxChunk, ExportContext context, double time) {
+        this.world = world;
+        this.context = context;
+        this.time = time;
+
+        minX = minChunk.x;
+        minY = Math.max(world.getBottomSectionCoord(), context.getSettings().getLowerDepth());
+        minZ = minChunk.z;
+        maxX = maxChunk.x;
+        maxY = Math.max(minY, world.getTopSectionCoord());
+        maxZ = maxChunk.z;
+        int height = maxY - minY;
+
+        // Same order as a full capture: X, then Z, then Y.
+        order = new long[(maxChunk.x - minChunk.x) * (maxChunk.z - minChunk.z) * height];
+        int i = 0;
+        for (int x = minChunk.x; x < maxChunk.x; x++) {
+            for (int z = minChunk.z; z < maxChunk.z; z++) {
+                for (int y = minY; y < maxY; y++) {
+                    order[i++] = ChunkSectionPos.asLong(x, y, z);
+                }
+            }
+        }
+
+        for (long key : order) {
+            enqueue(key);
+        }
+    }
+
+    /**
+     * Capture sections until the budget runs out or the frame is complete. At
+     * least one section is captured per call, so the capture always makes
+     * progress.
+     *
+     * @param budgetNanos Time budget, in nanoseconds.
+     * @return If the frame is complete.
+     */
+    public boolean step(long budgetNanos) {
+        long start = System.nanoTime();
+        while (!queue.isEmpty()) {
+            long key = queue.dequeueLong();
+            queued.remove(key);
+            captureSection(key);
+
+            if (System.nanoTime() - start >= budgetNanos) break;
+        }
+        return isDone();
+    }
+
+    private void captureSection(long key) {
+        int x = ChunkSectionPos.unpackX(key);
+        int y = ChunkSectionPos.unpackY(key);
+        int z = ChunkSectionPos.unpackZ(key);
+
+        boolean first = !captured.containsKey(key);
+        WorldSnapshot snapshot = WorldSnapshot.around(world, x, y, z, this::getCopy);
+        captured.put(key, BlockExporter.exportSection(snapshot, x, y, z, context));
+
+        if (first) {
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int nz = z - 1; nz <= z + 1; nz++) {
+                    for (int ny = y - 1; ny <= y + 1; ny++) {
+                        long neighbor = ChunkSectionPos.asLong(nx, ny, nz);
+                        CachedSection copy = copies.get(neighbor);
+                        if (copy != null && --copy.uses <= 0) {
+                            copies.remove(neighbor);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private WorldSnapshot.Section getCopy(long key) {
+        CachedSection cached = copies.get(key);
+        if (cached != null) return cached.section;
+
+        WorldSnapshot.Section section = WorldSnapshot.copySection(world, key);
+        // Updates outside the bounds aren't reported, so copies of those
+        // sections could go stale.
+        if (section == null || !isInBounds(key)) return section;
+
+        int uses = countUncaptured(key);
+        if (uses > 0) {
+            copies.put(key, new CachedSection(section, uses));
+        }
+        return section;
+    }
+
+    /**
+     * Count the sections around a section, including itself, that are yet to
+     * be captured for the first time.
+     */
+    private int countUncaptured(long key) {
+        int x = ChunkSectionPos.unpackX(key);
+        int y = ChunkSectionPos.unpackY(key);
+        int z = ChunkSectionPos.unpackZ(key);
+
+        int count = 0;
+        for (int nx = x - 1; nx <= x + 1; nx++) {
+            for (int nz = z - 1; nz <= z + 1; nz++) {
+                for (int ny = y - 1; ny <= y + 1; ny++) {
+                    long neighbor = ChunkSectionPos.asLong(nx, ny, nz);
+                    if (isInBounds(neighbor) && !captured.containsKey(neighbor)) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean isInBounds(long key) {
+        int x = ChunkSectionPos.unpackX(key);
+        int y = ChunkSectionPos.unpackY(key);
+        int z = ChunkSectionPos.unpackZ(key);
+        return x >= minX && x < maxX && y >= minY && y < maxY && z >= minZ && z < maxZ;
+    }
+
+    /**
+     * Report that a block has changed. If the block, or a neighbor that can
+     * see it, is in a section that has already been captured, that section is
+     * captured again.
+     *
+     * @param pos Position of the block.
+     */
+    public void markUpdated(BlockPos pos) {
+        int sectionX = pos.getX() >> 4;
+        int sectionY = pos.getY() >> 4;
+        int sectionZ = pos.getZ() >> 4;
+        int localX = pos.getX() & 15;
+        int localY = pos.getY() & 15;
+        int localZ = pos.getZ() & 15;
+        copies.remove(ChunkSectionPos.asLong(sectionX, sectionY, sectionZ));
+
+        // A block on a section's border also affects the faces and fluids on
+        // the other side of it.
+        for (int dx = localX == 0 ? -1 : 0; dx <= (localX == 15 ? 1 : 0); dx++) {
+            for (int dy = localY == 0 ? -1 : 0; dy <= (localY == 15 ? 1 : 0); dy++) {
+                for (int dz = localZ == 0 ? -1 : 0; dz <= (localZ == 15 ? 1 : 0); dz++) {
+                    long key = ChunkSectionPos.asLong(sectionX + dx, sectionY + dy, sectionZ + dz);
+                    if (captured.containsKey(key)) {
+                        enqueue(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void enqueue(long key) {
+        if (queued.add(key)) {
+            queue.enqueue(key);
+        }
+    }
+
+    /**
+     * Check whether every section has been captured.
+     * @return If the frame is complete.
+     */
+    public boolean isDone() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Get how far along the capture is.
+     * @return The fraction of sections that have been captured, from 0 to 1.
+     */
+    public float getProgress() {
+        if (order.length == 0) return 1;
+        return (order.length - queue.size()) / (float) order.length;
+    }
+
+    /**
+     * Build the finished frame.
+     * @return The frame.
+     * @throws IllegalStateException If the capture isn't complete.
+     */
+    public IFrame finish() {
+        if (!isDone()) {
+            throw new IllegalStateException("IFrame capture is not complete.");
+        }
+
+        NbtList sections = new NbtList();
+        SectionDeduplicator deduplicator = context.getSettings().shouldDedupeSections()
+                ? new SectionDeduplicator(context.sectionStats) : null;
+
+        for (long key : order) {
+            NbtCompound section = captured.get(key);
+            if (section == null) continue;
+            sections.add(deduplicator != null ? deduplicator.add(section) : section);
+        }
+
+        NbtCompound frame = new NbtCompound();
+        frame.put("sections", sections);
+        frame.putByte("type", Frame.INTRACODED_TYPE);
+        frame.putDouble("time", time);
+
+        return new IFrame(frame, context.modelTable);
+    }
+}
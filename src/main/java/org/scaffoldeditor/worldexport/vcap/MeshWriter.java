@@ -1,10 +1,8 @@
 package org.scaffoldeditor.worldexport.vcap;
 
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
@@ -17,7 +15,6 @@ import de.javagl.obj.FloatTuple;
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjFace;
 import de.javagl.obj.Objs;
-import net.minecraft.client.render.VertexFormats;
 import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.client.render.model.BakedQuad;
 import net.minecraft.util.math.Direction;
@@ -50,22 +47,22 @@ public final class MeshWriter {
         Obj obj = Objs.create();
         BakedModel model = entry.model;
 
-        List<Set<float[]>> fLayers = new ArrayList<>();
+        FaceLayers layers = new FaceLayers();
         for (int d = 0; d < BlockExporter.DIRECTIONS.length; d++) {
             if (!entry.faces[d]) continue;
             Direction direction = BlockExporter.DIRECTIONS[d];
             List<BakedQuad> quads = model.getQuads(entry.blockState, direction, random);
             for (BakedQuad quad : quads) {
-                addFace(quad, obj, entry.transparent, fLayers);
+                addFace(quad, obj, entry.transparent, layers);
             }
         }
         {   // Quads that aren't assigned to a direction.   
             List<BakedQuad> quads = model.getQuads(entry.blockState, null, random);
             for (BakedQuad quad : quads) {
-                addFace(quad, obj, entry.transparent, fLayers);
+                addFace(quad, obj, entry.transparent, layers);
             }
         }
-        return new MeshInfo(obj, fLayers.size());
+        return new MeshInfo(obj, layers.getNumLayers());
     }
 
     /**
@@ -73,10 +70,11 @@ public final class MeshWriter {
      * @param quad Quad to add.
      * @param obj Mesh to add to.
      * @param transparent Assign transparent material.
-     * @param fLayers A list of lists of 12-float arrays indicating what quads already exist. Used for material stacking.
+     * @param layers Tracks which quads already exist. Used for material stacking.
+     *               If <code>null</code>, the face goes on the first layer.
      * @return The face layer index this face was added to.
      */
-    public static int addFace(BakedQuad quad, Obj obj, boolean transparent, @Nullable List<Set<float[]>> fLayers) {
+    public static int addFace(BakedQuad quad, Obj obj, boolean transparent, @Nullable FaceLayers layers) {
 
         if (transparent) {
             if (quad.hasColor()) {
@@ -93,67 +91,34 @@ public final class MeshWriter {
         }
 
         int[] vertData = quad.getVertexData();
-
-        int len = vertData.length / 8;
-        ByteBuffer buffer = ByteBuffer.allocate(VertexFormats.POSITION_COLOR_TEXTURE_LIGHT_NORMAL.getVertexSize());
-        IntBuffer intBuffer = buffer.asIntBuffer();
+        int len = QuadDecoder.getVertexCount(vertData);
 
         int[] indices = new int[len];
-        float[] vertices = new float[len * 4];
 
         for (int i = 0; i < len; i++) {
             indices[i] = obj.getNumVertices();
 
-            intBuffer.clear();
-            intBuffer.put(vertData, i * 8, 8);
-
-            float x = buffer.getFloat(0);
-            float y = buffer.getFloat(4);
-            float z = buffer.getFloat(8);
-
-            float u = buffer.getFloat(16);
-            float v = buffer.getFloat(20);
-
-            obj.addTexCoord(u, 1 - v);
-            obj.addVertex(x, y, z);
-
-            vertices[i * 3] = x;
-            vertices[i * 3 + 1] = y;
-            vertices[i * 3 + 1] = z;
+            obj.addTexCoord(QuadDecoder.getU(vertData, i), 1 - QuadDecoder.getV(vertData, i));
+            obj.addVertex(QuadDecoder.getX(vertData, i), QuadDecoder.getY(vertData, i), QuadDecoder.getZ(vertData, i));
         }
 
-        // Identify the first layer without this face.
-        int layerIndex = 0;
-
-        if (fLayers != null) {
-            if (fLayers.isEmpty()) {
-                fLayers.add(new HashSet<>());
-            }
-
-            int i = 0;
-            Set<float[]> layer = fLayers.get(i);
-            while (contains(layer, vertices)) {
-                i++;
-                if (fLayers.size() >= i) {
-                    fLayers.add(new HashSet<>());
-                }
-                layer = fLayers.get(i);
-            }
-            layerIndex = i;
-            layer.add(vertices);
-        }
+        int layerIndex = layers != null ? layers.add(vertData) : 0;
 
-        obj.setActiveGroupNames(Arrays.asList(genGroupName(layerIndex)));
+        obj.setActiveGroupNames(getGroupNames(layerIndex));
         obj.addFace(indices, indices, null);
 
         return layerIndex;
     }
 
-    private static boolean contains(Collection<float[]> collection, float[] array) {
-        for (float[] val : collection) {
-            if (Arrays.equals(val, array)) return true;
+    private static final List<List<String>> GROUP_NAMES = new ArrayList<>();
+
+    private static List<String> getGroupNames(int index) {
+        synchronized (GROUP_NAMES) {
+            while (GROUP_NAMES.size() <= index) {
+                GROUP_NAMES.add(Collections.singletonList(genGroupName(GROUP_NAMES.size())));
+            }
+            return GROUP_NAMES.get(index);
         }
-        return false;
     }
     
     public static String genGroupName(int index) {
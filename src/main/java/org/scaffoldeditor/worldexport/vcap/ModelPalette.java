@@ -0,0 +1,148 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.Arrays;
+
+/**
+ * Builds the palette of model IDs used by a single section or frame. Lookups
+ * use an open-addressed hash table, so adding a voxel is constant time
+ * regardless of how many distinct models the palette holds.
+ * <p>
+ * Not thread-safe. Each section should build its own palette.
+ */
+public class ModelPalette {
+    private String[] keys;
+    private int[] values;
+    private String[] entries;
+    private int size;
+
+    /**
+     * Create a palette with a small default capacity.
+     */
+    public ModelPalette() {
+        this(16);
+    }
+
+    /**
+     * Create a palette.
+     * @param expectedSize The number of entries the palette is expected to hold.
+     *                     The palette will still grow past this if needed.
+     */
+    public ModelPalette(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+        entries = new String[Math.max(expectedSize, 4)];
+    }
+
+    /**
+     * Get the index of a model ID, adding it to the end of the palette if it
+     * isn't present.
+     * @param id Model ID.
+     * @return The ID's index in the palette.
+     */
+    public int add(String id) {
+        int mask = keys.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key == id || key.equals(id)) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        int index = size;
+        if (index == entries.length) {
+            entries = Arrays.copyOf(entries, index * 2);
+        }
+        entries[index] = id;
+        keys[slot] = id;
+        values[slot] = index;
+        size++;
+
+        // Keep the load factor at or below .5
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return index;
+    }
+
+    /**
+     * Get the index of a model ID.
+     * @param id Model ID.
+     * @return The ID's index in the palette, or <code>-1</code> if it isn't present.
+     */
+    public int indexOf(String id) {
+        int mask = keys.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key == id || key.equals(id)) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the model ID at a given palette index.
+     * @param index Palette index.
+     * @return The model ID.
+     * @throws IndexOutOfBoundsException If the index is outside the palette.
+     */
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return entries[index];
+    }
+
+    /**
+     * Get the number of entries in this palette.
+     * @return Palette size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of the palette's entries, in index order.
+     * @return Model IDs.
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(entries, size);
+    }
+
+    /**
+     * Look up each of the palette's entries in a model table.
+     * @param table Table to use. Entries that aren't in the table are added.
+     * @return The table index of each entry, in palette order.
+     */
+    public int[] toIndices(ModelTable table) {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = table.indexOf(entries[i]);
+        }
+        return indices;
+    }
+
+    private void rehash(int capacity) {
+        String[] newKeys = new String[capacity];
+        int[] newValues = new int[capacity];
+        int mask = capacity - 1;
+
+        for (int i = 0; i < size; i++) {
+            String id = entries[i];
+            int slot = mix(id.hashCode()) & mask;
+            while (newKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = id;
+            newValues[slot] = i;
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,99 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.Nullable;
+import org.scaffoldeditor.worldexport.vcap.ExportContext.ModelEntry;
+
+/**
+ * Interns the model entries of a Vcap and assigns each distinct entry a unique
+ * ID. Safe to use from multiple threads at once.
+ */
+public class ModelRegistry {
+
+    /**
+     * The model entries in the registry and their IDs.
+     */
+    private final Map<ModelEntry, String> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Reverse index of {@link #ids}.
+     */
+    private final Map<String, ModelEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The number of times each base name has been suffixed so far.
+     */
+    private final Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Get the ID of a model entry, generating one if the entry has not been
+     * registered yet.
+     * 
+     * @param entry Entry to get the ID for.
+     * @param name  Base name of the model. If <code>null</code>, the hash code of
+     *              the baked model is used.
+     * @return The ID.
+     */
+    public String getID(ModelEntry entry, @Nullable String name) {
+        String id = ids.get(entry);
+        if (id != null) return id;
+
+        String baseName = (name != null ? name : String.valueOf(entry.model.hashCode()))
+                + Arrays.toString(entry.faces);
+        return ids.computeIfAbsent(entry, e -> reserveID(baseName, e));
+    }
+
+    private String reserveID(String baseName, ModelEntry entry) {
+        if (entries.putIfAbsent(baseName, entry) == null) {
+            return baseName;
+        }
+
+        AtomicInteger counter = counters.computeIfAbsent(baseName, k -> new AtomicInteger());
+        String id;
+        do {
+            id = baseName + counter.incrementAndGet();
+        } while (entries.putIfAbsent(id, entry) != null);
+        return id;
+    }
+
+    /**
+     * Get the ID of a model entry without registering it.
+     * @param entry Entry to look up.
+     * @return The entry's ID, or <code>null</code> if it isn't registered.
+     */
+    @Nullable
+    public String getExistingID(ModelEntry entry) {
+        return ids.get(entry);
+    }
+
+    /**
+     * Get the model entry that was assigned a given ID.
+     * @param id Model ID.
+     * @return The entry, or <code>null</code> if no entry has this ID.
+     */
+    @Nullable
+    public ModelEntry getEntry(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Get the number of distinct models in this registry.
+     * @return Number of models.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Get a read-only view of the registered entries and their IDs.
+     * @return Map view of the registry.
+     */
+    public Map<ModelEntry, String> asMap() {
+        return Collections.unmodifiableMap(ids);
+    }
+}
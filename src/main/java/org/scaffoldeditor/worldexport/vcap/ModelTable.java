@@ -0,0 +1,87 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtString;
+
+/**
+ * The file-level table of model IDs in a Vcap. Sections and frames refer to
+ * models by their index in this table rather than by name, so each name is
+ * only written once. Indices are assigned in order and never change. Safe to
+ * use from multiple threads at once.
+ */
+public class ModelTable {
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+    private final List<String> ids = new ArrayList<>();
+
+    /**
+     * Get the index of a model ID, adding it to the table if it isn't present.
+     * @param id Model ID.
+     * @return The model's index.
+     */
+    public int indexOf(String id) {
+        Integer index = indices.get(id);
+        if (index != null) return index;
+
+        synchronized (ids) {
+            return indices.computeIfAbsent(id, key -> {
+                ids.add(key);
+                return ids.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Get the model ID at a given index.
+     * @param index Model index.
+     * @return Model ID.
+     * @throws IndexOutOfBoundsException If the index isn't in the table.
+     */
+    public String get(int index) {
+        synchronized (ids) {
+            return ids.get(index);
+        }
+    }
+
+    /**
+     * Get the number of models in the table.
+     * @return Table size.
+     */
+    public int size() {
+        synchronized (ids) {
+            return ids.size();
+        }
+    }
+
+    /**
+     * Write this table as a list of string tags, ordered by index.
+     * @return The <code>models</code> tag.
+     */
+    public NbtList toNbt() {
+        NbtList list = new NbtList();
+        synchronized (ids) {
+            for (String id : ids) {
+                list.add(NbtString.of(id));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Read a table written by {@link #toNbt()}.
+     * @param list The <code>models</code> tag.
+     * @return The table.
+     */
+    public static ModelTable fromNbt(NbtList list) {
+        ModelTable table = new ModelTable();
+        for (NbtElement element : list) {
+            table.indexOf(element.asString());
+        }
+        return table;
+    }
+}
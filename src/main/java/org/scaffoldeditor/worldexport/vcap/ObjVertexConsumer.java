@@ -10,17 +10,26 @@ import net.minecraft.client.render.VertexConsumer;
 import net.minecraft.util.math.Vec3d;
 
 /**
- * A vertex consumer that feeds vertices into an OBJ.
+ * A vertex consumer that feeds vertices into an OBJ. Vertices are transformed
+ * in place and collected into a fixed buffer, and each quad is added to the
+ * mesh once its fourth vertex is finished. An incomplete quad is never added.
+ * Apart from what the mesh itself stores, nothing is allocated per vertex.
  */
 public class ObjVertexConsumer implements VertexConsumer {
     
     public final Obj baseObj;
     private Matrix4dc transform;
-    private Vector3d posCache = new Vector3d();
 
-    float[][] vertCache = new float[4][];
-    float[][] normalCache = new float[4][];
-    float[][] texCache = new float[4][];
+    // Scratch space for the vertex being built.
+    private final Vector3d pos = new Vector3d();
+    private final Vector3f normal = new Vector3f();
+    private float u;
+    private float v;
+
+    // The finished vertices of the current quad.
+    private final float[] quadPositions = new float[12];
+    private final float[] quadNormals = new float[12];
+    private final float[] quadTexCoords = new float[8];
     private int head = 0;
     
     public ObjVertexConsumer(Obj baseObj, Vec3d offset) {
@@ -45,8 +54,7 @@ public class ObjVertexConsumer implements VertexConsumer {
 
     @Override
     public ObjVertexConsumer vertex(double x, double y, double z) {
-        posCache.set(x, y, z).mulPosition(transform);
-        vertCache[head] = new float[] { (float) posCache.x(), (float) posCache.y(), (float) posCache.z() };
+        pos.set(x, y, z).mulPosition(transform);
         return this;
     }
 
@@ -57,7 +65,8 @@ public class ObjVertexConsumer implements VertexConsumer {
 
     @Override
     public ObjVertexConsumer texture(float u, float v) {
-        texCache[head] = new float[] { (float) u, (float) v };
+        this.u = u;
+        this.v = v;
         return this;
     }
 
@@ -73,32 +82,37 @@ public class ObjVertexConsumer implements VertexConsumer {
 
     @Override
     public ObjVertexConsumer normal(float x, float y, float z) {
-        Vector3f vec = new Vector3f(x, y, z).mulDirection(transform);
-        normalCache[head] = new float[] { vec.x(), vec.y(), vec.z() };
+        normal.set(x, y, z).mulDirection(transform);
         return this;
     }
 
     @Override
     public void next() {
-        if (head >= 3) {
-            int objHead = baseObj.getNumVertices();
-            int[] indices = new int[4];
-            // baseObj.setActiveGroupNames(Arrays.asList(MeshWriter.genGroupName(0)));
-
-            for (int i = 0; i < 4; i++) {
-                indices[i] = objHead + i;
-                baseObj.addVertex(vertCache[i][0], vertCache[i][1], vertCache[i][2]);
-                baseObj.addNormal(normalCache[i][0], normalCache[i][1], normalCache[i][2]);
-                baseObj.addTexCoord(texCache[i][0], 1 - texCache[i][1]);
-            }
-
-            baseObj.addFace(indices, indices, indices);
-
-            head = 0;
-        } else {
+        quadPositions[head * 3] = (float) pos.x;
+        quadPositions[head * 3 + 1] = (float) pos.y;
+        quadPositions[head * 3 + 2] = (float) pos.z;
+        quadNormals[head * 3] = normal.x;
+        quadNormals[head * 3 + 1] = normal.y;
+        quadNormals[head * 3 + 2] = normal.z;
+        quadTexCoords[head * 2] = u;
+        quadTexCoords[head * 2 + 1] = 1 - v;
+
+        if (head < 3) {
             head++;
+            return;
+        }
+
+        // Vertices, normals and tex coords are added in lockstep, so they
+        // share indices.
+        int objHead = baseObj.getNumVertices();
+        for (int i = 0; i < 4; i++) {
+            baseObj.addVertex(quadPositions[i * 3], quadPositions[i * 3 + 1], quadPositions[i * 3 + 2]);
+            baseObj.addNormal(quadNormals[i * 3], quadNormals[i * 3 + 1], quadNormals[i * 3 + 2]);
+            baseObj.addTexCoord(quadTexCoords[i * 2], quadTexCoords[i * 2 + 1]);
         }
-        
+        int[] indices = { objHead, objHead + 1, objHead + 2, objHead + 3 };
+        baseObj.addFace(indices, indices, indices);
+        head = 0;
     }
 
     @Override
@@ -0,0 +1,182 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+/**
+ * <p>
+ * Occupancy bitsets of a 16x16x16 section plus a one-voxel halo taken from
+ * its neighbours. Used to work out which faces of a voxel are visible with
+ * bit operations rather than world lookups.
+ * </p>
+ * <p>
+ * Each voxel is tracked with two flags: whether it's opaque, and whether it's
+ * an opaque full cube. A face of a full cube is hidden if its neighbour is a
+ * full cube, and visible if its neighbour isn't opaque. Every other case
+ * depends on the exact shapes involved and is reported as unresolved.
+ * </p>
+ * Coordinates are section-relative and range from <code>-1</code> to
+ * <code>16</code>, inclusive.
+ */
+public class OcclusionGrid {
+    public static final int SIZE = 18;
+    private static final int ROW_MASK = 0xFFFF;
+
+    /**
+     * A face bitmask with all faces visible.
+     */
+    public static final int ALL_FACES = (1 << 6) - 1;
+
+    // One int per (y, z) row. Bit x + 1 represents the voxel at x.
+    private final int[] opaque = new int[SIZE * SIZE];
+    private final int[] full = new int[SIZE * SIZE];
+
+    private static int row(int y, int z) {
+        return (y + 1) * SIZE + (z + 1);
+    }
+
+    /**
+     * Set the occupancy of a voxel.
+     * @param x        Section-relative X, from -1 to 16.
+     * @param y        Section-relative Y, from -1 to 16.
+     * @param z        Section-relative Z, from -1 to 16.
+     * @param opaque   Whether the voxel is opaque.
+     * @param fullCube Whether the voxel is a full cube. Only has an effect if
+     *                 the voxel is also opaque.
+     */
+    public void set(int x, int y, int z, boolean opaque, boolean fullCube) {
+        int row = row(y, z);
+        int bit = 1 << (x + 1);
+        if (opaque) {
+            this.opaque[row] |= bit;
+        } else {
+            this.opaque[row] &= ~bit;
+        }
+
+        if (opaque && fullCube) {
+            this.full[row] |= bit;
+        } else {
+            this.full[row] &= ~bit;
+        }
+    }
+
+    /**
+     * Check whether a voxel is opaque.
+     * @param x Section-relative X, from -1 to 16.
+     * @param y Section-relative Y, from -1 to 16.
+     * @param z Section-relative Z, from -1 to 16.
+     * @return If it's opaque.
+     */
+    public boolean isOpaque(int x, int y, int z) {
+        return (opaque[row(y, z)] & (1 << (x + 1))) != 0;
+    }
+
+    /**
+     * Check whether a voxel is an opaque full cube.
+     * @param x Section-relative X, from -1 to 16.
+     * @param y Section-relative Y, from -1 to 16.
+     * @param z Section-relative Z, from -1 to 16.
+     * @return If it's an opaque full cube.
+     */
+    public boolean isFullCube(int x, int y, int z) {
+        return (full[row(y, z)] & (1 << (x + 1))) != 0;
+    }
+
+    /**
+     * Check whether every voxel bordering the section is an opaque full cube,
+     * meaning none of the section's outer faces can be seen.
+     * @return If the halo is fully closed.
+     */
+    public boolean isHaloFull() {
+        int haloRow = ROW_MASK << 1;
+        int haloEnds = 1 | (1 << (SIZE - 1));
+        for (int a = 0; a < 16; a++) {
+            if ((full[row(-1, a)] & haloRow) != haloRow) return false;
+            if ((full[row(16, a)] & haloRow) != haloRow) return false;
+            if ((full[row(a, -1)] & haloRow) != haloRow) return false;
+            if ((full[row(a, 16)] & haloRow) != haloRow) return false;
+            for (int b = 0; b < 16; b++) {
+                if ((full[row(a, b)] & haloEnds) != haloEnds) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reset every voxel to empty.
+     */
+    public void clear() {
+        for (int i = 0; i < opaque.length; i++) {
+            opaque[i] = 0;
+            full[i] = 0;
+        }
+    }
+
+    /**
+     * Compute the face visibility of one row of voxels along the X axis.
+     * 
+     * @param y          Section-relative Y of the row, from 0 to 15.
+     * @param z          Section-relative Z of the row, from 0 to 15.
+     * @param faces      A 16-element array to write the visible faces of each
+     *                   voxel into. Bit <code>n</code> represents
+     *                   <code>BlockExporter.DIRECTIONS[n]</code>.
+     * @param unresolved A 16-element array to write the faces that couldn't be
+     *                   determined from occupancy alone into. These need to be
+     *                   checked against the world.
+     */
+    public void computeRow(int y, int z, int[] faces, int[] unresolved) {
+        int center = row(y, z);
+        int self = (full[center] >>> 1) & ROW_MASK;
+
+        // Neighbour occupancy in each direction, aligned to the voxels of this row.
+        // Must follow the order of BlockExporter.DIRECTIONS.
+        int north = row(y, z - 1);
+        int south = row(y, z + 1);
+        int up = row(y + 1, z);
+        int down = row(y - 1, z);
+
+        int fullN = (full[north] >>> 1) & ROW_MASK;
+        int fullS = (full[south] >>> 1) & ROW_MASK;
+        int fullE = (full[center] >>> 2) & ROW_MASK;
+        int fullW = full[center] & ROW_MASK;
+        int fullU = (full[up] >>> 1) & ROW_MASK;
+        int fullD = (full[down] >>> 1) & ROW_MASK;
+
+        int openN = ~(opaque[north] >>> 1) & ROW_MASK;
+        int openS = ~(opaque[south] >>> 1) & ROW_MASK;
+        int openE = ~(opaque[center] >>> 2) & ROW_MASK;
+        int openW = ~opaque[center] & ROW_MASK;
+        int openU = ~(opaque[up] >>> 1) & ROW_MASK;
+        int openD = ~(opaque[down] >>> 1) & ROW_MASK;
+
+        // Faces of full cubes are visible next to anything that isn't opaque,
+        // and hidden next to other full cubes.
+        int visN = self & openN;
+        int visS = self & openS;
+        int visE = self & openE;
+        int visW = self & openW;
+        int visU = self & openU;
+        int visD = self & openD;
+
+        int notFull = ~self & ROW_MASK;
+        int unkN = notFull | (self & ~openN & ~fullN);
+        int unkS = notFull | (self & ~openS & ~fullS);
+        int unkE = notFull | (self & ~openE & ~fullE);
+        int unkW = notFull | (self & ~openW & ~fullW);
+        int unkU = notFull | (self & ~openU & ~fullU);
+        int unkD = notFull | (self & ~openD & ~fullD);
+
+        for (int x = 0; x < 16; x++) {
+            faces[x] = ((visN >>> x) & 1)
+                    | ((visS >>> x) & 1) << 1
+                    | ((visE >>> x) & 1) << 2
+                    | ((visW >>> x) & 1) << 3
+                    | ((visU >>> x) & 1) << 4
+                    | ((visD >>> x) & 1) << 5;
+
+            unresolved[x] = ((unkN >>> x) & 1)
+                    | ((unkS >>> x) & 1) << 1
+                    | ((unkE >>> x) & 1) << 2
+                    | ((unkW >>> x) & 1) << 3
+                    | ((unkU >>> x) & 1) << 4
+                    | ((unkD >>> x) & 1) << 5;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+/**
+ * Reads vertex attributes straight out of a baked quad's vertex data, which
+ * is laid out in Minecraft's block vertex format: position (3 floats), color
+ * (4 bytes), texture (2 floats), light (2 shorts) and normal (3 bytes plus
+ * padding), 8 ints per vertex. Nothing is allocated.
+ */
+public final class QuadDecoder {
+    private QuadDecoder() {}
+
+    /**
+     * The number of ints each vertex takes up.
+     */
+    public static final int STRIDE = 8;
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int Z = 2;
+    private static final int U = 4;
+    private static final int V = 5;
+
+    /**
+     * Get the number of vertices in a quad's vertex data.
+     * @param data Vertex data.
+     * @return Vertex count. Always <code>4</code> for baked quads.
+     */
+    public static int getVertexCount(int[] data) {
+        return data.length / STRIDE;
+    }
+
+    public static float getX(int[] data, int vertex) {
+        return Float.intBitsToFloat(data[vertex * STRIDE + X]);
+    }
+
+    public static float getY(int[] data, int vertex) {
+        return Float.intBitsToFloat(data[vertex * STRIDE + Y]);
+    }
+
+    public static float getZ(int[] data, int vertex) {
+        return Float.intBitsToFloat(data[vertex * STRIDE + Z]);
+    }
+
+    public static float getU(int[] data, int vertex) {
+        return Float.intBitsToFloat(data[vertex * STRIDE + U]);
+    }
+
+    public static float getV(int[] data, int vertex) {
+        return Float.intBitsToFloat(data[vertex * STRIDE + V]);
+    }
+}
@@ -0,0 +1,131 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+
+/**
+ * Replaces IFrame sections that are identical to an earlier section in the same
+ * frame with a reference to that section. Large captures are full of these:
+ * deep stone, open ocean, superflat layers and so on.
+ */
+public class SectionDeduplicator {
+
+    /**
+     * The encoded contents of a section, minus its position. Hashes are
+     * computed up front so they can be built on worker threads.
+     */
+    public static final class Content {
+        final int[] palette;
+        final int[] blocks;
+        final long[] packedBlocks;
+        final byte[] colorPalette;
+        final byte[] colors;
+        final int hash;
+
+        private Content(NbtCompound tag) {
+            palette = tag.getIntArray("palette");
+            blocks = tag.contains("blocks", NbtElement.INT_ARRAY_TYPE) ? tag.getIntArray("blocks") : null;
+            packedBlocks = tag.contains("packedBlocks", NbtElement.LONG_ARRAY_TYPE) ? tag.getLongArray("packedBlocks") : null;
+            colorPalette = tag.getByteArray("colorPalette");
+            colors = tag.contains("colors", NbtElement.BYTE_ARRAY_TYPE) ? tag.getByteArray("colors") : null;
+
+            int hash = Arrays.hashCode(palette);
+            hash = 31 * hash + Arrays.hashCode(blocks);
+            hash = 31 * hash + Arrays.hashCode(packedBlocks);
+            hash = 31 * hash + Arrays.hashCode(colorPalette);
+            hash = 31 * hash + Arrays.hashCode(colors);
+            this.hash = hash;
+        }
+
+        /**
+         * Read the contents of an encoded section.
+         * @param tag Section compound.
+         * @return Section contents.
+         */
+        public static Content of(NbtCompound tag) {
+            return new Content(tag);
+        }
+
+        /**
+         * Get the approximate size of the contents when written.
+         * @return Size in bytes.
+         */
+        public long byteSize() {
+            return palette.length * 4L
+                    + (blocks != null ? blocks.length * 4L : 0)
+                    + (packedBlocks != null ? packedBlocks.length * 8L : 0)
+                    + colorPalette.length
+                    + (colors != null ? colors.length : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Content)) return false;
+            Content other = (Content) obj;
+            // Hash first; full comparison only happens on a likely match.
+            return hash == other.hash
+                    && Arrays.equals(palette, other.palette)
+                    && Arrays.equals(blocks, other.blocks)
+                    && Arrays.equals(packedBlocks, other.packedBlocks)
+                    && Arrays.equals(colorPalette, other.colorPalette)
+                    && Arrays.equals(colors, other.colors);
+        }
+    }
+
+    private final Map<Content, Integer> indices = new HashMap<>();
+    private final DedupeStats stats;
+    private int size;
+
+    /**
+     * Create a deduplicator for a single frame.
+     * @param stats Stats to record hits and misses in.
+     */
+    public SectionDeduplicator(DedupeStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Add the next section of the frame.
+     * @param section Encoded section.
+     * @param content The section's contents, as returned by {@link Content#of}.
+     * @return The tag to write in the section's place. Either
+     *         <code>section</code> itself or a reference to an identical section
+     *         that was added earlier.
+     */
+    public NbtCompound add(NbtCompound section, Content content) {
+        int index = size++;
+        Integer existing = indices.putIfAbsent(content, index);
+        if (existing == null) {
+            stats.miss();
+            return section;
+        }
+
+        stats.hit(content.byteSize());
+        NbtCompound ref = new NbtCompound();
+        ref.putInt("x", section.getInt("x"));
+        ref.putInt("y", section.getInt("y"));
+        ref.putInt("z", section.getInt("z"));
+        ref.putInt("ref", existing);
+        return ref;
+    }
+
+    /**
+     * Add the next section of the frame.
+     * @param section Encoded section.
+     * @return The tag to write in the section's place.
+     * @see #add(NbtCompound, Content)
+     */
+    public NbtCompound add(NbtCompound section) {
+        return add(section, Content.of(section));
+    }
+}
@@ -11,7 +11,7 @@ import org.scaffoldeditor.worldexport.Constants;
  * Represents the general metadata for a VCap file.
  */
 public class VcapMeta {
-    public String version = Constants.REPLAY_FORMAT_VERSION;
+    public String version = Constants.VCAP_FORMAT_VERSION;
     public String encoder = "Minecraft World Exporter";
     public final List<String> faceLayers = new ArrayList<>();
 
@@ -21,6 +21,12 @@ public class VcapMeta {
      */
     public final Map<String, String> blockTypes = new HashMap<>();
 
+    /**
+     * A mapping of model IDs and the IDs of the meshes they share. Models that
+     * aren't in this mapping have a mesh of their own.
+     */
+    public final Map<String, String> meshes = new HashMap<>();
+
     /**
      * Create a VCap metadata object.
      * @param numLayers The number of face layers in the file.
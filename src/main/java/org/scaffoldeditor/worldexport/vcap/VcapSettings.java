@@ -4,9 +4,16 @@ import net.minecraft.util.math.ChunkPos;
 
 public class VcapSettings {
     private boolean exportFluids = true;
+    private boolean packBlocks = true;
+    private boolean dedupeSections = true;
     private int lowerDepth = Integer.MIN_VALUE;
     private ChunkPos minChunk = new ChunkPos(0, 0);
     private ChunkPos maxChunk = new ChunkPos(0, 0);
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int keyframeInterval = 0;
+    private double keyframeSeconds = 0;
+    private int keyframeVolume = 0;
+    private int maxUpdatesPerFrame = 4096;
 
     public boolean shouldExportFluids() {
         return exportFluids;
@@ -17,6 +24,46 @@ public class VcapSettings {
         return this;
     }
 
+    /**
+     * Whether IFrame sections store their block data bit-packed.
+     * @return If blocks are written to <code>packedBlocks</code> rather than
+     *         <code>blocks</code>.
+     */
+    public boolean shouldPackBlocks() {
+        return packBlocks;
+    }
+
+    /**
+     * Set whether IFrame sections store their block data bit-packed, using only
+     * as many bits per block as the section's palette needs. Enabled by default.
+     * @param packBlocks Whether to pack blocks.
+     * @return <code>this</code>
+     */
+    public VcapSettings packBlocks(boolean packBlocks) {
+        this.packBlocks = packBlocks;
+        return this;
+    }
+
+    /**
+     * Whether IFrame sections that are identical to an earlier section in the
+     * same frame are written as references to it.
+     * @return If sections are deduplicated.
+     */
+    public boolean shouldDedupeSections() {
+        return dedupeSections;
+    }
+
+    /**
+     * Set whether IFrame sections that are identical to an earlier section in
+     * the same frame are written as references to it. Enabled by default.
+     * @param dedupeSections Whether to deduplicate sections.
+     * @return <code>this</code>
+     */
+    public VcapSettings dedupeSections(boolean dedupeSections) {
+        this.dedupeSections = dedupeSections;
+        return this;
+    }
+
     /**
      * Set the lower depth.
      * @param lowerDepth Lower depth in section coordinates.
@@ -52,4 +99,124 @@ public class VcapSettings {
 
         return this;
     }
+
+    /**
+     * Get the number of threads used to encode sections during IFrame capture
+     * and to build block meshes while saving.
+     * @return Parallelism level. <code>1</code> means everything runs serially.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads used to encode sections during IFrame capture
+     * and to build block meshes while saving. Defaults to the number of
+     * available processors.
+     * @param parallelism Parallelism level. <code>1</code> does all the work
+     *                    serially on the calling thread.
+     * @return <code>this</code>
+     */
+    public VcapSettings setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of frames between keyframes.
+     * @return Frame count. <code>0</code> if keyframes aren't inserted based on
+     *         frame count.
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Insert an IFrame once this many frames have been captured since the last
+     * one. Disabled by default.
+     * @param keyframeInterval Frame count. <code>0</code> to disable.
+     * @return <code>this</code>
+     */
+    public VcapSettings setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 0) {
+            throw new IllegalArgumentException("Keyframe interval may not be negative.");
+        }
+        this.keyframeInterval = keyframeInterval;
+        return this;
+    }
+
+    /**
+     * Get the maximum time between keyframes.
+     * @return Time in seconds. <code>0</code> if keyframes aren't inserted based
+     *         on time.
+     */
+    public double getKeyframeSeconds() {
+        return keyframeSeconds;
+    }
+
+    /**
+     * Insert an IFrame once this much time has passed since the last one.
+     * Disabled by default.
+     * @param keyframeSeconds Time in seconds. <code>0</code> to disable.
+     * @return <code>this</code>
+     */
+    public VcapSettings setKeyframeSeconds(double keyframeSeconds) {
+        if (keyframeSeconds < 0) {
+            throw new IllegalArgumentException("Keyframe time may not be negative.");
+        }
+        this.keyframeSeconds = keyframeSeconds;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of block updates between keyframes.
+     * @return Block count. <code>0</code> if keyframes aren't inserted based on
+     *         update volume.
+     */
+    public int getKeyframeVolume() {
+        return keyframeVolume;
+    }
+
+    /**
+     * Insert an IFrame once the predicted frames since the last one have
+     * updated this many blocks in total. Disabled by default.
+     * @param keyframeVolume Block count. <code>0</code> to disable.
+     * @return <code>this</code>
+     */
+    public VcapSettings setKeyframeVolume(int keyframeVolume) {
+        if (keyframeVolume < 0) {
+            throw new IllegalArgumentException("Keyframe volume may not be negative.");
+        }
+        this.keyframeVolume = keyframeVolume;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of buffered block updates captured into a single
+     * frame.
+     * @return Update count. <code>0</code> if there's no limit.
+     */
+    public int getMaxUpdatesPerFrame() {
+        return maxUpdatesPerFrame;
+    }
+
+    /**
+     * Set the maximum number of buffered block updates captured into a single
+     * frame. Updates past the limit stay buffered and are captured with the
+     * following frames, so a sudden burst of updates (an explosion, a large
+     * fill) doesn't stall the frame it happens on. Defaults to
+     * <code>4096</code>.
+     * @param maxUpdatesPerFrame Update count. <code>0</code> for no limit.
+     * @return <code>this</code>
+     */
+    public VcapSettings setMaxUpdatesPerFrame(int maxUpdatesPerFrame) {
+        if (maxUpdatesPerFrame < 0) {
+            throw new IllegalArgumentException("Max updates per frame may not be negative.");
+        }
+        this.maxUpdatesPerFrame = maxUpdatesPerFrame;
+        return this;
+    }
 }
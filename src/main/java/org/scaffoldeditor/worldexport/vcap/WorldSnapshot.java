@@ -0,0 +1,318 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.function.LongFunction;
+
+import org.jetbrains.annotations.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.util.collection.PaletteStorage;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.world.BlockRenderView;
+import net.minecraft.world.WorldAccess;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IdListPalette;
+import net.minecraft.world.chunk.Palette;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.light.LightingProvider;
+import net.minecraft.world.level.ColorResolver;
+
+/**
+ * <p>
+ * An immutable copy of the block data needed to capture an IFrame: every
+ * section within the bounding box, plus the ring of chunks around it so that
+ * face culling and fluid rendering can see across the border.
+ * </p>
+ * <p>
+ * Building a snapshot only copies each section's packed storage and palette,
+ * so it's cheap enough to do on the render thread. Everything else, including
+ * face culling, model resolution and encoding, can then read from the
+ * snapshot on any thread while the world keeps changing.
+ * </p>
+ * <p>
+ * Lighting, biome colors and world height are still read from the live world,
+ * as they are by Minecraft's own off-thread chunk meshing.
+ * </p>
+ */
+public class WorldSnapshot implements BlockRenderView {
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    /**
+     * A copy of a single section's block data.
+     */
+    public static class Section {
+        private final long[] data;
+        private final int bits;
+        private final int perLong;
+        private final long mask;
+
+        /**
+         * Palette entries. <code>null</code> if the section uses the global
+         * palette, which never changes and isn't copied.
+         */
+        @Nullable
+        private final BlockState[] entries;
+        private final Palette<BlockState> globalPalette;
+
+        Section(PalettedContainer.Data<BlockState> source) {
+            PaletteStorage storage = source.storage();
+            data = storage.getData().clone();
+            bits = storage.getElementBits();
+            perLong = bits > 0 ? 64 / bits : 0;
+            mask = (1L << bits) - 1;
+
+            Palette<BlockState> palette = source.palette();
+            if (palette instanceof IdListPalette) {
+                entries = null;
+                globalPalette = palette;
+            } else {
+                entries = new BlockState[palette.getSize()];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = palette.get(i);
+                }
+                globalPalette = null;
+            }
+        }
+
+        /**
+         * Get the palette index of a voxel.
+         * @param index Voxel index, in YZX order.
+         * @return Palette index.
+         */
+        public int getPaletteIndex(int index) {
+            if (bits == 0) return 0;
+            return (int) (data[index / perLong] >>> ((index % perLong) * bits) & mask);
+        }
+
+        /**
+         * Get the number of palette entries.
+         * @return Palette size.
+         */
+        public int getPaletteSize() {
+            return entries != null ? entries.length : globalPalette.getSize();
+        }
+
+        /**
+         * Get a palette entry.
+         * @param paletteIndex Palette index.
+         * @return Block state.
+         */
+        public BlockState getPaletteEntry(int paletteIndex) {
+            return entries != null ? entries[paletteIndex] : globalPalette.get(paletteIndex);
+        }
+
+        /**
+         * Get the block state of a voxel.
+         * @param x Section-relative X.
+         * @param y Section-relative Y.
+         * @param z Section-relative Z.
+         * @return Block state.
+         */
+        public BlockState getBlockState(int x, int y, int z) {
+            return getPaletteEntry(getPaletteIndex((y * 16 + z) * 16 + x));
+        }
+    }
+
+    private final WorldAccess world;
+    private final Long2ObjectMap<Section> sections;
+    private final long[] targets;
+
+    private WorldSnapshot(WorldAccess world, Long2ObjectMap<Section> sections, long[] targets) {
+        this.world = world;
+        this.sections = sections;
+        this.targets = targets;
+    }
+
+    /**
+     * Copy the sections needed to capture an IFrame. Must be called on the
+     * thread that owns the world.
+     *
+     * @param world    World to copy from.
+     * @param minChunk Bounding box min (inclusive).
+     * @param maxChunk Bounding box max (exclusive).
+     * @param settings Settings to capture with.
+     * @return The snapshot.
+     */
+    public static WorldSnapshot capture(WorldAccess world, ChunkPos minChunk, ChunkPos maxChunk, VcapSettings settings) {
+        Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+        LongList targets = new LongArrayList();
+
+        // Include a one-chunk border so neighbors across the edge can be read.
+        for (int x = minChunk.x - 1; x <= maxChunk.x; x++) {
+            for (int z = minChunk.z - 1; z <= maxChunk.z; z++) {
+                if (!world.isChunkLoaded(x, z)) continue;
+                boolean inside = x >= minChunk.x && x < maxChunk.x && z >= minChunk.z && z < maxChunk.z;
+
+                Chunk chunk = world.getChunk(x, z);
+                ChunkSection[] chunkSections = chunk.getSectionArray();
+                for (int i = 0; i < chunkSections.length; i++) {
+                    // Empty sections are implicitly air.
+                    if (chunkSections[i] == null || chunkSections[i].isEmpty()) continue;
+
+                    int y = chunk.sectionIndexToCoord(i);
+                    long key = ChunkSectionPos.asLong(x, y, z);
+                    sections.put(key, new Section(chunkSections[i].getBlockStateContainer().data));
+
+                    if (inside && y >= settings.getLowerDepth()) {
+                        targets.add(key);
+                    }
+                }
+            }
+        }
+
+        return new WorldSnapshot(world, sections, targets.toLongArray());
+    }
+
+    /**
+     * Copy a single section and the sections touching it, so that the section
+     * can be captured on its own. Must be called on the thread that owns the
+     * world.
+     * 
+     * @param world    World to copy from.
+     * @param sectionX Section X.
+     * @param sectionY Section Y.
+     * @param sectionZ Section Z.
+     * @return The snapshot. Its only target is the given section, unless that
+     *         section is empty or not loaded.
+     */
+    public static WorldSnapshot captureAround(WorldAccess world, int sectionX, int sectionY, int sectionZ) {
+        return around(world, sectionX, sectionY, sectionZ, key -> copySection(world, key));
+    }
+
+    /**
+     * Build a snapshot of a single section and the sections touching it.
+     * 
+     * @param world    The live world.
+     * @param sectionX Section X.
+     * @param sectionY Section Y.
+     * @param sectionZ Section Z.
+     * @param sections Supplies each section by its packed position, or
+     *                 <code>null</code> if it's empty or not loaded.
+     * @return The snapshot.
+     * @see #captureAround(WorldAccess, int, int, int)
+     */
+    static WorldSnapshot around(WorldAccess world, int sectionX, int sectionY, int sectionZ,
+            LongFunction<Section> sections) {
+        Long2ObjectMap<Section> around = new Long2ObjectOpenHashMap<>(27);
+
+        for (int x = sectionX - 1; x <= sectionX + 1; x++) {
+            for (int z = sectionZ - 1; z <= sectionZ + 1; z++) {
+                for (int y = sectionY - 1; y <= sectionY + 1; y++) {
+                    long key = ChunkSectionPos.asLong(x, y, z);
+                    Section section = sections.apply(key);
+                    if (section != null) around.put(key, section);
+                }
+            }
+        }
+
+        long key = ChunkSectionPos.asLong(sectionX, sectionY, sectionZ);
+        long[] targets = around.containsKey(key) ? new long[] { key } : new long[0];
+        return new WorldSnapshot(world, around, targets);
+    }
+
+    /**
+     * Copy a single section. Must be called on the thread that owns the world.
+     * 
+     * @param world World to copy from.
+     * @param key   Section position, as packed by
+     *              {@link ChunkSectionPos#asLong(int, int, int)}.
+     * @return The copy, or <code>null</code> if the section is empty or not
+     *         loaded.
+     */
+    @Nullable
+    static Section copySection(WorldAccess world, long key) {
+        int x = ChunkSectionPos.unpackX(key);
+        int z = ChunkSectionPos.unpackZ(key);
+        if (!world.isChunkLoaded(x, z)) return null;
+
+        Chunk chunk = world.getChunk(x, z);
+        ChunkSection[] chunkSections = chunk.getSectionArray();
+        int i = chunk.sectionCoordToIndex(ChunkSectionPos.unpackY(key));
+        if (i < 0 || i >= chunkSections.length) return null;
+        if (chunkSections[i] == null || chunkSections[i].isEmpty()) return null;
+
+        return new Section(chunkSections[i].getBlockStateContainer().data);
+    }
+
+    /**
+     * Get the world this snapshot was taken from.
+     * @return The live world.
+     */
+    public WorldAccess getWorld() {
+        return world;
+    }
+
+    /**
+     * Get the sections that should be written to the IFrame, in capture order.
+     * @return Section positions, as packed by {@link ChunkSectionPos#asLong(int, int, int)}.
+     */
+    public long[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * Get a section from the snapshot.
+     * @param sectionX Section X.
+     * @param sectionY Section Y.
+     * @param sectionZ Section Z.
+     * @return The section, or <code>null</code> if it was empty or not loaded.
+     */
+    @Nullable
+    public Section getSection(int sectionX, int sectionY, int sectionZ) {
+        return sections.get(ChunkSectionPos.asLong(sectionX, sectionY, sectionZ));
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        Section section = getSection(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4);
+        if (section == null) return AIR;
+        return section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+    }
+
+    @Override
+    public FluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Override
+    @Nullable
+    public BlockEntity getBlockEntity(BlockPos pos) {
+        // Block entities aren't part of Vcap files.
+        return null;
+    }
+
+    @Override
+    public float getBrightness(Direction direction, boolean shaded) {
+        return world.getBrightness(direction, shaded);
+    }
+
+    @Override
+    public LightingProvider getLightingProvider() {
+        return world.getLightingProvider();
+    }
+
+    @Override
+    public int getColor(BlockPos pos, ColorResolver colorResolver) {
+        return world.getColor(pos, colorResolver);
+    }
+
+    @Override
+    public int getHeight() {
+        return world.getHeight();
+    }
+
+    @Override
+    public int getBottomY() {
+        return world.getBottomY();
+    }
+}
@@ -0,0 +1,290 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+import org.scaffoldeditor.worldexport.vcap.Frame.IFrame;
+import org.scaffoldeditor.worldexport.vcap.Frame.PFrame;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+/**
+ * <p>
+ * Tracks the current model and color of every voxel in a Vcap as frames are
+ * captured. This lets predicted frames be compared against the latest state of
+ * the world in constant time, no matter how many frames came before them, and
+ * lets keyframes be written without re-scanning the world.
+ * </p>
+ * <p>
+ * Not thread-safe. Should be updated on the same thread that captures frames.
+ * </p>
+ */
+public class WorldState {
+    private static final int UNKNOWN = -1;
+    private static final int DEFAULT_COLOR = 0xFFFFFF;
+
+    /**
+     * The values of the 4096 voxels in a section, stored as a palette and a
+     * short index per voxel. While every voxel has the same value, only the
+     * palette is stored.
+     */
+    private static class PalettedValues {
+        private int[] palette;
+        private int paletteSize;
+
+        /**
+         * Palette index of each voxel. <code>null</code> while every voxel
+         * uses the first entry.
+         */
+        @Nullable
+        private short[] indices;
+
+        PalettedValues(int value) {
+            palette = new int[] { value };
+            paletteSize = 1;
+        }
+
+        /**
+         * Copy a decoded palette and its per-voxel indices.
+         * @param palette Palette.
+         * @param indices Palette index of each voxel, or <code>null</code> if
+         *                every voxel uses the first entry.
+         */
+        PalettedValues(int[] palette, @Nullable int[] indices) {
+            if (indices == null || palette.length == 1) {
+                this.palette = new int[] { palette[0] };
+                this.paletteSize = 1;
+                return;
+            }
+            this.palette = palette.clone();
+            this.paletteSize = palette.length;
+            this.indices = new short[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                this.indices[i] = (short) indices[i];
+            }
+        }
+
+        int get(int index) {
+            return indices != null ? palette[indices[index]] : palette[0];
+        }
+
+        void set(int index, int value) {
+            if (indices == null && value == palette[0]) return;
+
+            int local = -1;
+            for (int i = 0; i < paletteSize; i++) {
+                if (palette[i] == value) {
+                    local = i;
+                    break;
+                }
+            }
+            if (local < 0) {
+                if (paletteSize == palette.length) {
+                    palette = Arrays.copyOf(palette, palette.length * 2);
+                }
+                local = paletteSize++;
+                palette[local] = value;
+            }
+            if (indices == null) {
+                indices = new short[16 * 16 * 16];
+            }
+            indices[index] = (short) local;
+        }
+    }
+
+    private static class Section {
+        /**
+         * The model of each voxel, as an index into the {@link ModelTable}.
+         */
+        final PalettedValues models;
+
+        /**
+         * The packed RGB color of each voxel. Only sections with tinted blocks
+         * ever store more than one.
+         */
+        final PalettedValues colors;
+
+        Section(PalettedValues models, PalettedValues colors) {
+            this.models = models;
+            this.colors = colors;
+        }
+    }
+
+    private final Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+
+    private final ModelTable models;
+
+    /**
+     * Create an empty world state.
+     * @param models The model table of the Vcap.
+     */
+    public WorldState(ModelTable models) {
+        this.models = models;
+    }
+
+    /**
+     * Replace the contents of this state with the contents of an IFrame.
+     * @param frame Frame to apply.
+     */
+    public void apply(IFrame frame) {
+        sections.clear();
+        // Don't build the frame's own index; it would stay cached on the frame
+        // for the rest of the capture, holding a second copy of the world.
+        frame.forEachSection(section -> {
+            sections.put(ChunkSectionPos.asLong(section.x, section.y, section.z), new Section(
+                    new PalettedValues(section.palette, section.blocks),
+                    new PalettedValues(section.colorPalette, section.colors)));
+        });
+    }
+
+    /**
+     * Apply the updates of a predicted frame to this state.
+     * @param frame Frame to apply.
+     */
+    public void apply(PFrame frame) {
+        for (Map.Entry<BlockPos, String> entry : frame.getUpdates().entrySet()) {
+            set(entry.getKey(), entry.getValue(), frame.getColor(entry.getKey()));
+        }
+    }
+
+    /**
+     * Set the model and color of a single voxel.
+     * @param pos     Voxel position.
+     * @param modelID Model ID.
+     * @param color   Packed RGB color.
+     */
+    public void set(BlockPos pos, String modelID, int color) {
+        long key = ChunkSectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4);
+        Section section = sections.get(key);
+        if (section == null) {
+            section = new Section(new PalettedValues(UNKNOWN), new PalettedValues(DEFAULT_COLOR));
+            sections.put(key, section);
+        }
+        int index = DecodedSection.indexOf(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+        section.models.set(index, models.indexOf(modelID));
+        section.colors.set(index, color & 0xFFFFFF);
+    }
+
+    /**
+     * Get the current model of a voxel.
+     * @param pos Voxel position.
+     * @return Model ID.
+     * @throws IndexOutOfBoundsException If the voxel has never been captured.
+     */
+    public String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
+        Section section = sections.get(ChunkSectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4));
+        int model = section != null
+                ? section.models.get(DecodedSection.indexOf(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15))
+                : UNKNOWN;
+
+        if (model == UNKNOWN) {
+            throw new IndexOutOfBoundsException("Block pos: "+pos+" is not within the Vcap bounds.");
+        }
+        return models.get(model);
+    }
+
+    /**
+     * Check whether a voxel currently has a given model and color.
+     * @param pos     Voxel position.
+     * @param modelID Model ID.
+     * @param color   Packed RGB color.
+     * @return <code>false</code> if it doesn't, or if the voxel has never been
+     *         captured.
+     */
+    public boolean matches(BlockPos pos, String modelID, int color) {
+        Section section = sections.get(ChunkSectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4));
+        if (section == null) return false;
+
+        int index = DecodedSection.indexOf(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+        int model = section.models.get(index);
+        return model != UNKNOWN && models.get(model).equals(modelID) && section.colors.get(index) == (color & 0xFFFFFF);
+    }
+
+    /**
+     * Get the number of sections currently tracked.
+     * @return Section count.
+     */
+    public int getSectionCount() {
+        return sections.size();
+    }
+
+    /**
+     * <p>
+     * Write the current state as an IFrame. Voxels that have never been
+     * captured are written as air, as they were part of an empty section when
+     * the last IFrame was captured.
+     * </p>
+     * <p>
+     * Because this reads from memory rather than the world, it's far cheaper
+     * than {@link IFrame#capture}.
+     * </p>
+     * 
+     * @param time    Time stamp of the frame, in seconds since the beginning of
+     *                the animation.
+     * @param context The export context.
+     * @return The new frame.
+     */
+    public IFrame toIFrame(double time, ExportContext context) {
+        int air = models.indexOf(BlockExporter.getAirID(context));
+        Int2IntMap localIndices = new Int2IntOpenHashMap();
+        localIndices.defaultReturnValue(-1);
+        IntArrayList palette = new IntArrayList();
+
+        long[] keys = sections.keySet().toLongArray();
+        Arrays.sort(keys);
+
+        NbtList sectionsTag = new NbtList();
+        SectionDeduplicator deduplicator = context.getSettings().shouldDedupeSections()
+                ? new SectionDeduplicator(context.sectionStats)
+                : null;
+        for (long key : keys) {
+            Section section = sections.get(key);
+            // NBT arrays keep a reference to these, so they can't be reused.
+            int[] blocks = new int[16 * 16 * 16];
+            byte[] colors = new byte[16 * 16 * 16];
+            ColorPalette colorPalette = new ColorPalette();
+            localIndices.clear();
+            palette.clear();
+
+            for (int i = 0; i < blocks.length; i++) {
+                int model = section.models.get(i);
+                if (model == UNKNOWN) model = air;
+                int local = localIndices.get(model);
+                if (local < 0) {
+                    local = palette.size();
+                    palette.add(model);
+                    localIndices.put(model, local);
+                }
+                blocks[i] = local;
+                colors[i] = (byte) (colorPalette.add(section.colors.get(i)) * 3);
+            }
+
+            // Keep the file free of empty sections, like a captured IFrame.
+            if (palette.size() == 1 && palette.getInt(0) == air) continue;
+
+            NbtCompound tag = new NbtCompound();
+            tag.putInt("x", ChunkSectionPos.unpackX(key));
+            tag.putInt("y", ChunkSectionPos.unpackY(key));
+            tag.putInt("z", ChunkSectionPos.unpackZ(key));
+            BlockExporter.writePalettedData(tag, palette.toIntArray(), blocks, colorPalette, colors,
+                    context.getSettings().shouldPackBlocks());
+            sectionsTag.add(deduplicator != null ? deduplicator.add(tag) : tag);
+        }
+
+        NbtCompound frame = new NbtCompound();
+        frame.put("sections", sectionsTag);
+        frame.putByte("type", Frame.INTRACODED_TYPE);
+        frame.putDouble("time", time);
+
+        return new IFrame(frame, models);
+    }
+}
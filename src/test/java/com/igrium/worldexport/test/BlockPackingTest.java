@@ -0,0 +1,63 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.vcap.BlockPacking;
+
+public class BlockPackingTest {
+
+    @Test
+    public void testBitsFor() {
+        assertEquals(1, BlockPacking.bitsFor(1));
+        assertEquals(1, BlockPacking.bitsFor(2));
+        assertEquals(2, BlockPacking.bitsFor(3));
+        assertEquals(2, BlockPacking.bitsFor(4));
+        assertEquals(3, BlockPacking.bitsFor(5));
+        assertEquals(8, BlockPacking.bitsFor(256));
+        assertEquals(9, BlockPacking.bitsFor(257));
+        assertEquals(12, BlockPacking.bitsFor(4096));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(12);
+        for (int paletteSize = 1; paletteSize <= 4096; paletteSize = paletteSize * 2 + 1) {
+            int[] values = new int[16 * 16 * 16];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(paletteSize);
+            }
+            int bits = BlockPacking.bitsFor(paletteSize);
+            long[] packed = BlockPacking.pack(values, bits);
+
+            assertEquals(BlockPacking.packedLength(values.length, bits), packed.length);
+            assertArrayEquals(values, BlockPacking.unpack(packed, bits, values.length),
+                    "Palette size " + paletteSize);
+        }
+    }
+
+    @Test
+    public void testLayout() {
+        // 3 bits per entry leaves 21 entries per long, with the top bit unused.
+        int[] values = new int[22];
+        values[0] = 5;
+        values[20] = 7;
+        values[21] = 1;
+        long[] packed = BlockPacking.pack(values, 3);
+
+        assertEquals(2, packed.length);
+        assertEquals(5L | 7L << 60, packed[0]);
+        assertEquals(1L, packed[1]);
+    }
+
+    @Test
+    public void testOverflow() {
+        assertThrows(IllegalArgumentException.class, () -> BlockPacking.pack(new int[] { 4 }, 2));
+        assertThrows(IllegalArgumentException.class, () -> BlockPacking.pack(new int[] { -1 }, 2));
+        assertThrows(IllegalArgumentException.class, () -> BlockPacking.unpack(new long[1], 2, 33));
+    }
+}
@@ -0,0 +1,78 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.vcap.BlockUpdateBuffer;
+
+public class BlockUpdateBufferTest {
+
+    @Test
+    public void testCoalesce() {
+        BlockUpdateBuffer buffer = new BlockUpdateBuffer();
+        assertTrue(buffer.add(5));
+        assertTrue(buffer.add(7));
+        assertFalse(buffer.add(5));
+        assertFalse(buffer.add(5));
+
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.getCoalescedCount());
+        assertArrayEquals(new long[] { 5, 7 }, buffer.drain(0));
+        assertTrue(buffer.isEmpty());
+
+        // Drained positions can be buffered again.
+        assertTrue(buffer.add(5));
+    }
+
+    @Test
+    public void testLimit() {
+        BlockUpdateBuffer buffer = new BlockUpdateBuffer();
+        for (long i = 0; i < 10; i++) {
+            buffer.add(i);
+        }
+
+        assertArrayEquals(new long[] { 0, 1, 2, 3 }, buffer.drain(4));
+        assertEquals(6, buffer.size());
+        buffer.add(2);
+        assertArrayEquals(new long[] { 4, 5, 6, 7 }, buffer.drain(4));
+        assertArrayEquals(new long[] { 8, 9, 2 }, buffer.drain(4));
+        assertEquals(0, buffer.drain(4).length);
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        BlockUpdateBuffer buffer = new BlockUpdateBuffer();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (long i = 0; i < 10000; i++) {
+                    buffer.add(i);
+                }
+            });
+            threads[t].start();
+        }
+
+        Set<Long> drained = new HashSet<>();
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) {
+                if (thread.isAlive()) running = true;
+            }
+            for (long pos : buffer.drain(100)) {
+                drained.add(pos);
+            }
+        }
+        for (long pos : buffer.drain(0)) {
+            drained.add(pos);
+        }
+
+        assertEquals(10000, drained.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.vcap.FaceLayers;
+import org.scaffoldeditor.worldexport.vcap.QuadDecoder;
+
+public class FaceLayersTest {
+
+    /**
+     * Build vertex data in the block vertex format.
+     * @param positions XYZ of each of the four vertices.
+     */
+    private static int[] quad(float... positions) {
+        int[] data = new int[4 * QuadDecoder.STRIDE];
+        for (int i = 0; i < 4; i++) {
+            data[i * QuadDecoder.STRIDE] = Float.floatToIntBits(positions[i * 3]);
+            data[i * QuadDecoder.STRIDE + 1] = Float.floatToIntBits(positions[i * 3 + 1]);
+            data[i * QuadDecoder.STRIDE + 2] = Float.floatToIntBits(positions[i * 3 + 2]);
+            // Texture coordinates don't affect layering.
+            data[i * QuadDecoder.STRIDE + 4] = Float.floatToIntBits(i * .25f);
+        }
+        return data;
+    }
+
+    private static final float[] NORTH = { 0, 1, 0, 1, 1, 0, 1, 0, 0, 0, 0, 0 };
+    private static final float[] UP = { 0, 1, 0, 0, 1, 1, 1, 1, 1, 1, 1, 0 };
+
+    @Test
+    public void testDecode() {
+        int[] data = quad(NORTH);
+        assertEquals(4, QuadDecoder.getVertexCount(data));
+        assertEquals(1f, QuadDecoder.getX(data, 1));
+        assertEquals(1f, QuadDecoder.getY(data, 1));
+        assertEquals(0f, QuadDecoder.getZ(data, 1));
+        assertEquals(.75f, QuadDecoder.getU(data, 3));
+        assertEquals(0f, QuadDecoder.getV(data, 3));
+    }
+
+    @Test
+    public void testOverlay() {
+        FaceLayers layers = new FaceLayers();
+        assertEquals(0, layers.add(quad(NORTH)));
+        assertEquals(0, layers.add(quad(UP)));
+        assertEquals(1, layers.add(quad(NORTH)));
+        assertEquals(2, layers.add(quad(NORTH)));
+        assertEquals(1, layers.add(quad(UP)));
+        assertEquals(3, layers.getNumLayers());
+    }
+
+    @Test
+    public void testDistinctAxes() {
+        // Quads that differ only in Z must not share a key.
+        FaceLayers layers = new FaceLayers();
+        assertEquals(0, layers.add(quad(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0)));
+        assertEquals(0, layers.add(quad(0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1)));
+        assertEquals(0, layers.add(quad(0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0)));
+        assertEquals(1, layers.getNumLayers());
+    }
+
+    @Test
+    public void testQuantization() {
+        float[] nudged = NORTH.clone();
+        for (int i = 0; i < nudged.length; i++) {
+            nudged[i] += 1e-5f;
+        }
+        FaceLayers layers = new FaceLayers();
+        assertEquals(0, layers.add(quad(NORTH)));
+        assertEquals(1, layers.add(quad(nudged)));
+    }
+}
@@ -0,0 +1,132 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.vcap.OcclusionGrid;
+
+public class OcclusionGridTest {
+
+    private static final int AIR = 0;
+    private static final int PARTIAL = 1; // Opaque, but not a full cube (slabs, stairs...)
+    private static final int FULL = 2;
+    private static final int GLASS = 3; // Not opaque
+
+    private static final int DRAW = 0;
+    private static final int CULL = 1;
+    private static final int UNRESOLVED = 2;
+
+    // Same order as BlockExporter.DIRECTIONS: north, south, east, west, up, down.
+    private static final int[][] OFFSETS = {
+            { 0, 0, -1 }, { 0, 0, 1 }, { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 } };
+
+    private static void set(OcclusionGrid grid, int x, int y, int z, int type) {
+        grid.set(x, y, z, type == PARTIAL || type == FULL, type == FULL);
+    }
+
+    /**
+     * Put a voxel in an empty grid with a single neighbor on one side, and
+     * check what the grid decides for the face between them.
+     */
+    private static void assertFace(int self, int neighbor, int expected, String description) {
+        for (int d = 0; d < 6; d++) {
+            OcclusionGrid grid = new OcclusionGrid();
+            int[] o = OFFSETS[d];
+            set(grid, 7, 7, 7, self);
+            set(grid, 7 + o[0], 7 + o[1], 7 + o[2], neighbor);
+
+            int[] faces = new int[16];
+            int[] unresolved = new int[16];
+            grid.computeRow(7, 7, faces, unresolved);
+
+            String where = description + ", direction " + d;
+            if (expected == UNRESOLVED) {
+                assertTrue((unresolved[7] & (1 << d)) != 0, where + " should be unresolved.");
+            } else {
+                assertEquals(0, unresolved[7] & (1 << d), where + " should be resolved.");
+                assertEquals(expected == DRAW, (faces[7] & (1 << d)) != 0, where);
+            }
+        }
+    }
+
+    /**
+     * Hand-written cases, with the answer <code>Block.shouldDrawSide</code>
+     * gives for each. The grid may only decide a face when vanilla's answer
+     * doesn't depend on the blocks' exact shapes.
+     */
+    @Test
+    void testFaceCases() {
+        // Vanilla draws any face whose neighbor isn't opaque.
+        assertFace(FULL, AIR, DRAW, "Stone next to air");
+        assertFace(FULL, GLASS, DRAW, "Stone next to glass");
+        // Two full culling faces cover each other.
+        assertFace(FULL, FULL, CULL, "Stone next to stone");
+        // Depends on the neighbor's culling face: a bottom slab covers the
+        // face of the block under it, a top slab doesn't.
+        assertFace(FULL, PARTIAL, UNRESOLVED, "Stone next to a slab");
+        // Depends on the voxel's own shape, or on isSideInvisible (glass next
+        // to glass is hidden).
+        assertFace(PARTIAL, FULL, UNRESOLVED, "Slab next to stone");
+        assertFace(PARTIAL, AIR, UNRESOLVED, "Slab next to air");
+        assertFace(GLASS, GLASS, UNRESOLVED, "Glass next to glass");
+        assertFace(GLASS, FULL, UNRESOLVED, "Glass next to stone");
+    }
+
+    @Test
+    void testBuriedCube() {
+        OcclusionGrid grid = new OcclusionGrid();
+        for (int x = -1; x <= 16; x++) {
+            for (int y = -1; y <= 16; y++) {
+                for (int z = -1; z <= 16; z++) {
+                    set(grid, x, y, z, FULL);
+                }
+            }
+        }
+
+        int[] faces = new int[16];
+        int[] unresolved = new int[16];
+        grid.computeRow(7, 7, faces, unresolved);
+        assertEquals(0, faces[7], "A cube surrounded by cubes should have no visible faces.");
+        assertEquals(0, unresolved[7]);
+        assertTrue(grid.isHaloFull());
+
+        // Open the halo above the top layer.
+        set(grid, 3, 16, 15, AIR);
+        assertFalse(grid.isHaloFull());
+        grid.computeRow(15, 15, faces, unresolved);
+        assertEquals(1 << 4, faces[3], "Only the top face should be visible.");
+        assertEquals(0, faces[4]);
+    }
+
+    @Test
+    void testHaloSides() {
+        int[][] holes = { { -1, 4, 9 }, { 16, 0, 0 }, { 5, -1, 15 }, { 15, 15, 16 }, { 0, 7, -1 } };
+        for (int[] hole : holes) {
+            OcclusionGrid grid = new OcclusionGrid();
+            for (int x = -1; x <= 16; x++) {
+                for (int y = -1; y <= 16; y++) {
+                    for (int z = -1; z <= 16; z++) {
+                        set(grid, x, y, z, FULL);
+                    }
+                }
+            }
+            set(grid, hole[0], hole[1], hole[2], PARTIAL);
+            assertFalse(grid.isHaloFull(), "Hole at " + hole[0] + ", " + hole[1] + ", " + hole[2]);
+        }
+    }
+
+    @Test
+    void testFlags() {
+        OcclusionGrid grid = new OcclusionGrid();
+        set(grid, -1, 16, 0, FULL);
+        set(grid, 16, -1, 15, PARTIAL);
+        assertTrue(grid.isFullCube(-1, 16, 0));
+        assertTrue(grid.isOpaque(16, -1, 15));
+        assertFalse(grid.isFullCube(16, -1, 15));
+
+        grid.clear();
+        assertFalse(grid.isOpaque(-1, 16, 0));
+    }
+}
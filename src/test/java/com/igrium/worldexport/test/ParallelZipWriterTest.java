@@ -0,0 +1,122 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.util.ParallelZipWriter;
+
+public class ParallelZipWriterTest {
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(22);
+        byte[] png = randomBytes(random, 5000);
+        byte[] text = "mesh data ".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        byte[] streamed = "streamed ".repeat(50000).getBytes(StandardCharsets.UTF_8);
+
+        File file = File.createTempFile("zipwriter-", ".zip");
+        file.deleteOnExit();
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            ParallelZipWriter writer = new ParallelZipWriter(os, 4);
+            writer.write("tex/world.png", png);
+            for (int i = 0; i < 100; i++) {
+                writer.write("mesh/" + i + ".obj", text);
+            }
+            try (OutputStream entry = writer.openStream("world.vcap")) {
+                entry.write(streamed);
+            }
+            try (OutputStream entry = writer.openEntry("meta.json")) {
+                entry.write(text);
+            }
+            writer.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            assertEquals(103, zip.size());
+            assertEquals(ZipEntry.STORED, zip.getEntry("tex/world.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("mesh/0.obj").getMethod());
+            assertArrayEquals(png, read(zip, "tex/world.png"));
+            assertArrayEquals(text, read(zip, "mesh/99.obj"));
+            assertArrayEquals(streamed, read(zip, "world.vcap"));
+            assertArrayEquals(text, read(zip, "meta.json"));
+
+            // Entries are written in the order they were added.
+            assertEquals("tex/world.png", zip.stream().findFirst().get().getName());
+            assertEquals("meta.json", zip.stream().reduce((a, b) -> b).get().getName());
+        }
+    }
+
+    @Test
+    public void testZip64EntryCount() throws IOException {
+        File file = File.createTempFile("zipwriter-", ".zip");
+        file.deleteOnExit();
+        int count = 70000;
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            ParallelZipWriter writer = new ParallelZipWriter(os, 1);
+            for (int i = 0; i < count; i++) {
+                writer.write(i + ".txt", Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            }
+            writer.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            assertEquals(count, zip.size());
+            assertArrayEquals("69999".getBytes(StandardCharsets.UTF_8), read(zip, "69999.txt"));
+        }
+    }
+
+    @Test
+    public void testLevels() {
+        ParallelZipWriter writer = new ParallelZipWriter(OutputStream.nullOutputStream(), 1);
+        writer.setLevel("obj", 1);
+        assertEquals(ParallelZipWriter.STORED, writer.getLevel("tex/a.PNG"));
+        assertEquals(1, writer.getLevel("mesh/a.obj"));
+        assertEquals(-1, writer.getLevel("world.dat.d/noext"));
+        assertThrows(IllegalArgumentException.class, () -> writer.setLevel("obj", 10));
+    }
+
+    @Test
+    public void testDuplicate() throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(OutputStream.nullOutputStream(), 2);
+        writer.write("a", new byte[1]);
+        assertThrows(ZipException.class, () -> writer.write("a", new byte[1]));
+        writer.finish();
+    }
+
+    @Test
+    public void testAbort() throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(OutputStream.nullOutputStream(), 4);
+        for (int i = 0; i < 20; i++) {
+            writer.write("mesh/" + i + ".obj", new byte[1000]);
+        }
+        writer.abort();
+        assertThrows(IllegalStateException.class, () -> writer.write("a", new byte[1]));
+        // Aborting twice does nothing.
+        writer.abort();
+    }
+}
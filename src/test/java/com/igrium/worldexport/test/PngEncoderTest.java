@@ -0,0 +1,67 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.util.PngEncoder;
+
+public class PngEncoderTest {
+
+    private static BufferedImage encodeAndDecode(int width, int height, int[] abgr, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngEncoder.write(width, height, (x, y) -> abgr[y * width + x], out, level);
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertPixels(int width, int height, int[] abgr, BufferedImage image) {
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = abgr[y * width + x];
+                // ABGR -> ARGB
+                int expected = (color & 0xFF00FF00) | ((color & 0xFF) << 16) | ((color >> 16) & 0xFF);
+                assertEquals(expected, image.getRGB(x, y), "Pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomPixels() throws IOException {
+        Random random = new Random(23);
+        int width = 37;
+        int height = 19;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        assertPixels(width, height, pixels, encodeAndDecode(width, height, pixels, Deflater.DEFAULT_COMPRESSION));
+        assertPixels(width, height, pixels, encodeAndDecode(width, height, pixels, 0));
+    }
+
+    @Test
+    public void testGradientSpanningChunks() throws IOException {
+        // Stored compression makes the data span several IDAT chunks.
+        int width = 300;
+        int height = 200;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (x & 0xFF) | ((y & 0xFF) << 8) | (((x + y) & 0xFF) << 16);
+            }
+        }
+
+        assertPixels(width, height, pixels, encodeAndDecode(width, height, pixels, 0));
+        assertPixels(width, height, pixels, encodeAndDecode(width, height, pixels, 9));
+    }
+}